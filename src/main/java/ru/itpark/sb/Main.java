@@ -1,9 +1,11 @@
 package ru.itpark.sb;
 
 import ru.itpark.sb.repository.DocumentRepository;
+import ru.itpark.sb.repository.RepositoryOptions;
 import ru.itpark.sb.service.DocumentService;
 import ru.itpark.sb.service.EncryptionService;
 import ru.itpark.sb.service.FileStorageService;
+import ru.itpark.sb.service.StorageBackend;
 import ru.itpark.sb.ui.ConsoleUI;
 
 import java.nio.file.Paths;
@@ -13,10 +15,18 @@ import java.nio.file.Paths;
  */
 public class Main {
     private static final String STORAGE_DIRECTORY = "documents_storage";
+    private static final long CONTENT_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final int WARMUP_CONCURRENCY = 16;
 
     public static void main(String[] args) {
-        FileStorageService fileStorageService = new FileStorageService(STORAGE_DIRECTORY);
-        DocumentRepository repository = new DocumentRepository(fileStorageService);
+        FileStorageService fileStorageService = new FileStorageService(STORAGE_DIRECTORY,
+                StorageBackend.valueOf(System.getProperty("edo.storage.backend", StorageBackend.FILE_PER_DOCUMENT.name())));
+        DocumentRepository repository = new DocumentRepository(fileStorageService,
+                RepositoryOptions.builder()
+                        .lazyContent(true)
+                        .contentCacheBytes(CONTENT_CACHE_BYTES)
+                        .warmupConcurrency(WARMUP_CONCURRENCY)
+                        .build());
         EncryptionService encryptionService = new EncryptionService();
         DocumentService documentService = new DocumentService(repository, encryptionService);
         ConsoleUI consoleUI = new ConsoleUI(documentService);
@@ -25,5 +35,7 @@ public class Main {
 
         // Запуск приложения
         consoleUI.start();
+        repository.close();
+        fileStorageService.close();
     }
 }
\ No newline at end of file
@@ -0,0 +1,12 @@
+package ru.itpark.sb.domain;
+
+/**
+ * Источник зашифрованного содержимого документа, загружаемого по требованию
+ */
+@FunctionalInterface
+public interface ContentLoader {
+    /**
+     * Загрузить зашифрованное содержимое документа
+     */
+    byte[] load(String documentId);
+}
@@ -18,20 +18,77 @@ public class Document {
     
     private String name;
     
+    /**
+     * Не выводится в toString: для документа с отложенной загрузкой это чтение с диска
+     * (вместо содержимого выводится contentLength).
+     * Содержимое и загрузчик volatile: опубликованный документ читается без блокировок,
+     * а репозиторий может выгрузить его содержимое в кэш ({@link #detachContent}).
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private volatile byte[] encryptedContent;
+
+    @Getter(AccessLevel.NONE)
     @Setter(AccessLevel.NONE)
-    private byte[] encryptedContent;
+    @ToString.Exclude
+    private transient volatile ContentLoader contentLoader;
     
+    /**
+     * Размер зашифрованного содержимого в байтах; известен и без загрузки содержимого в память
+     */
+    private long contentLength;
+
+    /**
+     * Хеш пароля из метаданных прежних версий; новыми документами не заполняется,
+     * пароль проверяется при расшифровке содержимого
+     */
     private String passwordHash;
     
     private LocalDateTime createdAt;
     
     private LocalDateTime updatedAt;
 
+    /**
+     * Версия документа: увеличивается репозиторием при каждом сохранении изменений
+     */
+    private long version;
+
+    /**
+     * Получение зашифрованного содержимого; для документа с отложенной загрузкой
+     * содержимое читается из хранилища при каждом обращении
+     */
+    public byte[] getEncryptedContent() {
+        byte[] content = encryptedContent;
+        if (content != null) {
+            return content;
+        }
+        // Загрузчик назначается до выгрузки содержимого, поэтому после null он уже виден
+        ContentLoader loader = contentLoader;
+        return loader != null ? loader.load(id) : null;
+    }
+
+    /**
+     * Находится ли содержимое документа в памяти
+     */
+    public boolean isContentLoaded() {
+        return encryptedContent != null || contentLoader == null;
+    }
+
+    /**
+     * Выгрузить содержимое из памяти: дальнейшие обращения идут через загрузчик
+     */
+    public void detachContent(ContentLoader contentLoader) {
+        this.contentLoader = contentLoader;
+        this.encryptedContent = null;
+    }
+
     /**
      * Установка зашифрованного содержимого с автоматическим обновлением времени изменения
      */
     public void setEncryptedContent(byte[] encryptedContent) {
         this.encryptedContent = encryptedContent;
+        this.contentLength = encryptedContent != null ? encryptedContent.length : 0;
         this.updatedAt = LocalDateTime.now();
     }
 
@@ -42,8 +99,36 @@ public class Document {
         this.id = id;
         this.name = name;
         this.encryptedContent = encryptedContent;
+        this.contentLength = encryptedContent != null ? encryptedContent.length : 0;
         this.passwordHash = passwordHash;
         this.createdAt = LocalDateTime.now();
         this.updatedAt = LocalDateTime.now();
     }
+
+    /**
+     * Независимая копия документа для изменения без блокировок: изменения копии не видны
+     * другим читателям, пока она не сохранена через {@code DocumentRepository.compareAndSave}
+     */
+    public Document copy() {
+        Document copy = new Document();
+        copy.id = id;
+        copy.name = name;
+        copy.encryptedContent = encryptedContent;
+        copy.contentLoader = contentLoader;
+        copy.contentLength = contentLength;
+        copy.passwordHash = passwordHash;
+        copy.createdAt = createdAt;
+        copy.updatedAt = updatedAt;
+        copy.version = version;
+        return copy;
+    }
+
+    /**
+     * Создание документа с отложенной загрузкой содержимого (только метаданные в памяти)
+     */
+    public static Document withLazyContent(String id, String name, String passwordHash, ContentLoader contentLoader) {
+        Document document = new Document(id, name, null, passwordHash);
+        document.contentLoader = contentLoader;
+        return document;
+    }
 }
@@ -0,0 +1,13 @@
+package ru.itpark.sb.domain;
+
+import lombok.Value;
+
+/**
+ * Данные нового документа для пакетного импорта
+ */
+@Value
+public class DocumentDraft {
+    String name;
+    String content;
+    String password;
+}
@@ -0,0 +1,310 @@
+package ru.itpark.sb.repository;
+
+import lombok.Value;
+import ru.itpark.sb.domain.ContentLoader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Кэш зашифрованного содержимого документов с ограничением по суммарному размеру в байтах.
+ * <p>
+ * Политика вытеснения — упрощённый W-TinyLFU: новые записи попадают в небольшое LRU-окно,
+ * а при переходе в основную область (сегментированный LRU: probation + protected) конкурируют
+ * с кандидатом на вытеснение по частоте обращений, оцениваемой count-min sketch.
+ * Однократный проход по большому числу документов не вытесняет часто используемые записи.
+ */
+public class ContentCache {
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final long maximumWeight;
+    private final long windowMaximum;
+    private final long mainMaximum;
+    private final long protectedMaximum;
+
+    private final LinkedHashMap<String, Entry> window = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>();
+    private final FrequencySketch sketch = new FrequencySketch();
+    /**
+     * Метки загрузок, идущих вне блокировки; put и invalidate снимают метку, и устаревшее
+     * содержимое, прочитанное до изменения, не попадает в кэш
+     */
+    private final Map<String, Object> loading = new HashMap<>();
+
+    private long windowWeight;
+    private long probationWeight;
+    private long protectedWeight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ContentCache(long maximumWeight) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("Размер кэша должен быть положительным");
+        }
+        this.maximumWeight = maximumWeight;
+        this.windowMaximum = Math.max(1, maximumWeight * WINDOW_PERCENT / 100);
+        this.mainMaximum = maximumWeight - windowMaximum;
+        this.protectedMaximum = mainMaximum * PROTECTED_PERCENT / 100;
+    }
+
+    /**
+     * Получить содержимое из кэша или загрузить его и поместить в кэш
+     */
+    public byte[] get(String id, ContentLoader loader) {
+        Object token = new Object();
+        synchronized (this) {
+            byte[] cached = getIfPresent(id);
+            if (cached != null) {
+                return cached;
+            }
+            loading.put(id, token);
+        }
+        byte[] loaded;
+        try {
+            loaded = loader.load(id);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                loading.remove(id, token);
+            }
+            throw e;
+        }
+        synchronized (this) {
+            if (loading.remove(id, token) && !contains(id)) {
+                insert(id, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Получить содержимое из кэша, если оно там есть
+     */
+    public synchronized byte[] getIfPresent(String id) {
+        sketch.increment(id);
+        Entry entry = window.get(id);
+        if (entry != null) {
+            window.remove(id);
+            window.put(id, entry);
+        } else if ((entry = probation.remove(id)) != null) {
+            probationWeight -= entry.weight;
+            promote(entry);
+        } else if ((entry = protectedSegment.remove(id)) != null) {
+            protectedSegment.put(id, entry);
+        }
+
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Поместить (или заменить) содержимое документа в кэше
+     */
+    public synchronized void put(String id, byte[] content) {
+        invalidate(id);
+        insert(id, content);
+    }
+
+    /**
+     * Удалить содержимое документа из кэша
+     */
+    public synchronized void invalidate(String id) {
+        loading.remove(id);
+        Entry entry;
+        if ((entry = window.remove(id)) != null) {
+            windowWeight -= entry.weight;
+        } else if ((entry = probation.remove(id)) != null) {
+            probationWeight -= entry.weight;
+        } else if ((entry = protectedSegment.remove(id)) != null) {
+            protectedWeight -= entry.weight;
+        }
+    }
+
+    /**
+     * Текущая статистика кэша
+     */
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions,
+                window.size() + probation.size() + protectedSegment.size(),
+                windowWeight + probationWeight + protectedWeight,
+                maximumWeight);
+    }
+
+    private boolean contains(String id) {
+        return window.containsKey(id) || probation.containsKey(id) || protectedSegment.containsKey(id);
+    }
+
+    /**
+     * Новая запись попадает в окно; вытесненные из окна записи претендуют на место в основной области
+     */
+    private void insert(String id, byte[] content) {
+        Entry entry = new Entry(id, content);
+        if (entry.weight > maximumWeight) {
+            evictions++;
+            return;
+        }
+        window.put(id, entry);
+        windowWeight += entry.weight;
+
+        while (windowWeight > windowMaximum && !window.isEmpty()) {
+            Entry candidate = removeEldest(window);
+            windowWeight -= candidate.weight;
+            admit(candidate);
+        }
+    }
+
+    /**
+     * Допуск кандидата в основную область: кандидат вытесняет записи, только если обращений к нему
+     * было больше, чем к каждой из них. Решение принимается до вытеснения, поэтому отклонённый
+     * кандидат не освобождает место зря.
+     */
+    private void admit(Entry candidate) {
+        if (candidate.weight > mainMaximum) {
+            evictions++;
+            return;
+        }
+        long excess = probationWeight + protectedWeight + candidate.weight - mainMaximum;
+        int candidateFrequency = sketch.frequency(candidate.key);
+        List<Entry> victims = new ArrayList<>();
+        Iterator<Entry> eldest = Stream.concat(probation.values().stream(), protectedSegment.values().stream()).iterator();
+        for (long freed = 0; freed < excess; ) {
+            Entry victim = eldest.next();
+            if (candidateFrequency <= sketch.frequency(victim.key)) {
+                evictions++;
+                return;
+            }
+            victims.add(victim);
+            freed += victim.weight;
+        }
+        for (Entry victim : victims) {
+            if (probation.remove(victim.key) != null) {
+                probationWeight -= victim.weight;
+            } else {
+                protectedSegment.remove(victim.key);
+                protectedWeight -= victim.weight;
+            }
+            evictions++;
+        }
+        probation.put(candidate.key, candidate);
+        probationWeight += candidate.weight;
+    }
+
+    /**
+     * Повторное обращение к записи на испытательном сроке переводит её в защищённую область
+     */
+    private void promote(Entry entry) {
+        protectedSegment.put(entry.key, entry);
+        protectedWeight += entry.weight;
+        while (protectedWeight > protectedMaximum && protectedSegment.size() > 1) {
+            Entry demoted = removeEldest(protectedSegment);
+            protectedWeight -= demoted.weight;
+            probation.put(demoted.key, demoted);
+            probationWeight += demoted.weight;
+        }
+    }
+
+    private static Entry removeEldest(LinkedHashMap<String, Entry> segment) {
+        Iterator<Map.Entry<String, Entry>> iterator = segment.entrySet().iterator();
+        Entry eldest = iterator.next().getValue();
+        iterator.remove();
+        return eldest;
+    }
+
+    /**
+     * Статистика кэша содержимого
+     */
+    @Value
+    public static class Stats {
+        long hitCount;
+        long missCount;
+        long evictionCount;
+        int entryCount;
+        long weightedSize;
+        long maximumWeight;
+
+        public double hitRate() {
+            long requests = hitCount + missCount;
+            return requests == 0 ? 1.0 : (double) hitCount / requests;
+        }
+    }
+
+    private static class Entry {
+        private final String key;
+        private final byte[] value;
+        private final int weight;
+
+        Entry(String key, byte[] value) {
+            this.key = key;
+            this.value = value;
+            this.weight = Math.max(1, value.length);
+        }
+    }
+
+    /**
+     * Count-min sketch с 4-битными счётчиками и периодическим старением (делением счётчиков пополам)
+     */
+    static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int WIDTH = 1 << 14;
+        private static final int[] SEEDS = {0x97cb3127, 0x3d4d51cb, 0x5bd1e995, 0x27d4eb2f};
+
+        private final byte[][] table = new byte[DEPTH][WIDTH];
+        private final int sampleSize = WIDTH * 10;
+        private int additions;
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < DEPTH; i++) {
+                int index = indexOf(hash, i);
+                if (table[i][index] < MAX_COUNT) {
+                    table[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                frequency = Math.min(frequency, table[i][indexOf(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private void reset() {
+            for (byte[] row : table) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = (byte) (row[j] >>> 1);
+                }
+            }
+            additions /= 2;
+        }
+
+        private static int indexOf(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & (WIDTH - 1);
+        }
+
+        private static int spread(int hash) {
+            int h = hash * 0x85ebca6b;
+            return h ^ (h >>> 13);
+        }
+    }
+}
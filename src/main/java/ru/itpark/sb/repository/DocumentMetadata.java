@@ -0,0 +1,29 @@
+package ru.itpark.sb.repository;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Метаданные документа, сохраняемые в metadata.json и журнале
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+class DocumentMetadata {
+    private String id;
+    private String name;
+    private String passwordHash;
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+    /**
+     * Размер зашифрованного содержимого; отсутствует в метаданных, записанных до его появления
+     */
+    private Long contentLength;
+    /**
+     * Версия документа; отсутствует в метаданных, записанных до её появления (читается как 0)
+     */
+    private Long version;
+}
@@ -0,0 +1,24 @@
+package ru.itpark.sb.repository;
+
+import lombok.Value;
+import ru.itpark.sb.domain.Document;
+
+import java.util.List;
+
+/**
+ * Страница результатов выборки. Следующая страница запрашивается по курсору {@link #getNextCursor()}:
+ * курсор указывает на ключ последнего документа страницы, а не на смещение, поэтому
+ * параллельные вставки и удаления не сдвигают уже выданные страницы.
+ */
+@Value
+public class DocumentPage {
+    List<Document> items;
+    /**
+     * Курсор следующей страницы; null, если страница последняя
+     */
+    String nextCursor;
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
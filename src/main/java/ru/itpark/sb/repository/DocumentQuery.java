@@ -0,0 +1,53 @@
+package ru.itpark.sb.repository;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Составной запрос к репозиторию: условия по имени и датам, порядок сортировки и ограничение.
+ * Все условия необязательны и объединяются по «И»; границы дат исключительные.
+ */
+@Getter
+@Builder
+public class DocumentQuery {
+    /**
+     * Подстрока имени (без учёта регистра)
+     */
+    private final String nameContains;
+    private final LocalDateTime createdAfter;
+    private final LocalDateTime createdBefore;
+    private final LocalDateTime updatedAfter;
+    private final LocalDateTime updatedBefore;
+
+    @Builder.Default
+    private final SortKey sortBy = SortKey.CREATED_AT;
+
+    /**
+     * Максимальное число документов в результате; 0 — без ограничения
+     */
+    @Builder.Default
+    private final int limit = 0;
+
+    /**
+     * Порядок результатов: даты — от новых к старым, имя — по возрастанию
+     */
+    public enum SortKey {
+        CREATED_AT,
+        UPDATED_AT,
+        NAME
+    }
+
+    boolean hasName() {
+        return nameContains != null && !nameContains.isEmpty();
+    }
+
+    boolean hasCreatedRange() {
+        return createdAfter != null || createdBefore != null;
+    }
+
+    boolean hasUpdatedRange() {
+        return updatedAfter != null || updatedBefore != null;
+    }
+}
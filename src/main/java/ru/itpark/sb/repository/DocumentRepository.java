@@ -2,95 +2,504 @@ package ru.itpark.sb.repository;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 import lombok.extern.slf4j.Slf4j;
+import ru.itpark.sb.domain.ContentLoader;
 import ru.itpark.sb.domain.Document;
 import ru.itpark.sb.service.FileStorageService;
 
 import java.lang.reflect.Type;
 import java.time.LocalDateTime;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
- * Репозиторий для хранения документов в памяти (ConcurrentHashMap) и на диске
+ * Репозиторий для хранения документов в памяти (ConcurrentHashMap) и на диске.
+ * Изменения метаданных дописываются в журнал {@link MetadataJournal}, который периодически
+ * сворачивается в снимок metadata.json.
+ * <p>
+ * Каждое сохранение увеличивает версию документа. {@link #compareAndSave} сохраняет документ,
+ * только если версия в репозитории не изменилась с момента чтения: читатели не блокируются,
+ * а писатель при конфликте перечитывает документ и повторяет изменение.
+ * <p>
+ * В режиме отложенной записи ({@link RepositoryOptions#isWriteBehind()}) изменения сразу видны
+ * в памяти, а на диск и в журнал их пишет фоновый поток {@link WriteBehindQueue}; при закрытии
+ * репозитория очередь дописывается до конца.
  */
 @Slf4j
-public class DocumentRepository {
+public class DocumentRepository implements AutoCloseable {
+    private static final int DOCUMENT_LOCK_STRIPES = 64;
+
     private final Map<String, Document> documents = new ConcurrentHashMap<>();
+    private final NameIndex nameIndex = new NameIndex();
+    private final NameOrderIndex nameOrderIndex = new NameOrderIndex();
+    private final TimestampIndex createdIndex = new TimestampIndex(Document::getCreatedAt);
+    private final TimestampIndex updatedIndex = new TimestampIndex(Document::getUpdatedAt);
+    private final ParallelScanner scanner;
+    private final QueryEngine queryEngine;
+    private final RepositoryStatistics statistics = new RepositoryStatistics();
+    private final AtomicBoolean lengthsMeasured = new AtomicBoolean();
+    private final ReentrantReadWriteLock publishLock = new ReentrantReadWriteLock();
+    /**
+     * Пакеты {@link #saveAll} держат блокировку чтения от публикации до фиксации или отката,
+     * контрольная точка — блокировку записи: в снимок не попадает пакет, который ещё может откатиться
+     */
+    private final ReentrantReadWriteLock batchCommitLock = new ReentrantReadWriteLock();
+    /**
+     * Упорядочивает запись одного документа на диск и в журнал в порядке версий
+     */
+    private final StripedLockTable documentLocks = new StripedLockTable(DOCUMENT_LOCK_STRIPES);
     private final FileStorageService fileStorageService;
     private final Gson gson;
+    private final MetadataJournal journal;
+    private final RepositoryOptions options;
+    private final ContentCache contentCache;
+    private final ContentLoader contentLoader;
+    private final WriteBehindQueue writeBehind;
 
     public DocumentRepository(FileStorageService fileStorageService) {
+        this(fileStorageService, RepositoryOptions.defaults());
+    }
+
+    public DocumentRepository(FileStorageService fileStorageService, RepositoryOptions options) {
         this.fileStorageService = fileStorageService;
+        this.options = options;
+        this.scanner = new ParallelScanner(options.getParallelScanThreshold(), options.getParallelScanParallelism());
+        this.queryEngine = new QueryEngine(documents, nameIndex, createdIndex, updatedIndex, nameOrderIndex.order(), scanner);
+        this.contentCache = options.getContentCacheBytes() > 0 ? new ContentCache(options.getContentCacheBytes()) : null;
+        this.writeBehind = options.isWriteBehind()
+                ? new WriteBehindQueue(this::writeBehindBatch, options.getWriteBehindCapacity(), options.getWriteBehindOverflow())
+                : null;
+        this.contentLoader = this::readContent;
         this.gson = new GsonBuilder()
                 .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
                 .create();
+        this.journal = new MetadataJournal(fileStorageService, gson, options.getCheckpointInterval(),
+                options.getDurability(), options.getGroupCommitWindow(), options.getGroupCommitMaxBatch(),
+                this::committedMetadataSnapshot, options.isWriteBehind());
         loadDocumentsFromDisk();
     }
 
     /**
-     * Загрузить документы с диска
+     * Загрузить документы с диска: снимок метаданных и журнал изменений после него.
+     * Ошибка загрузки прерывает запуск: репозиторий, начавший работу с неполным набором
+     * документов, перезаписал бы снимок при следующей контрольной точке.
      */
     private void loadDocumentsFromDisk() {
         try {
-            String metadataJson = fileStorageService.loadMetadata();
-            Type listType = new TypeToken<List<DocumentMetadata>>() {
-            }.getType();
-            List<DocumentMetadata> metadataList = gson.fromJson(metadataJson, listType);
-
-            if (metadataList != null) {
-                metadataList.stream()
-                        .forEach(metadata -> {
-                            Optional<byte[]> content = fileStorageService.loadDocumentContent(metadata.getId());
-                            if (content.isPresent()) {
-                                Document document = new Document(
-                                        metadata.getId(),
-                                        metadata.getName(),
-                                        content.get(),
-                                        metadata.getPasswordHash()
-                                );
-                                document.setCreatedAt(metadata.getCreatedAt());
-                                document.setUpdatedAt(metadata.getUpdatedAt());
-                                documents.put(metadata.getId(), document);
-                            }
-                        });
-                log.info("Загружено {} документов с диска", documents.size());
+            Map<String, DocumentMetadata> metadataById = journal.replay();
+            if (options.getWarmupConcurrency() > 1) {
+                warmUpInParallel(metadataById.values());
+            } else {
+                metadataById.values()
+                        .forEach(metadata -> loadDocument(metadata).ifPresent(this::publish));
+            }
+            log.info("Загружено {} документов с диска{}", documents.size(),
+                    options.isLazyContent() ? " (только метаданные)" : "");
+
+            if (journal.pendingRecords() > 0 || lengthsMeasured.get()) {
+                journal.checkpoint(metadataSnapshot());
             }
         } catch (Exception e) {
-            log.error("Ошибка при загрузке документов с диска: {}", e.getMessage(), e);
+            stopWriters();
+            throw new RuntimeException("Ошибка при загрузке документов с диска: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Параллельная загрузка документов: чтения распределяются по виртуальным потокам,
+     * число одновременных чтений ограничено {@link RepositoryOptions#getWarmupConcurrency()}
+     */
+    private void warmUpInParallel(Collection<DocumentMetadata> metadataList) throws Exception {
+        int total = metadataList.size();
+        int progressStep = Math.max(1, total / 10);
+        Semaphore permits = new Semaphore(options.getWarmupConcurrency());
+        AtomicInteger processed = new AtomicInteger();
+        List<Future<?>> tasks = new ArrayList<>(total);
+        long startedAt = System.nanoTime();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (DocumentMetadata metadata : metadataList) {
+                permits.acquire();
+                tasks.add(executor.submit(() -> {
+                    try {
+                        loadDocument(metadata).ifPresent(DocumentRepository.this::publish);
+                    } finally {
+                        permits.release();
+                        int done = processed.incrementAndGet();
+                        if (done % progressStep == 0 || done == total) {
+                            log.info("Прогрев репозитория: обработано {} из {}", done, total);
+                        }
+                    }
+                }));
+            }
+        }
+
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                throw (Exception) e.getCause();
+            }
+        }
+        log.info("Прогрев репозитория завершён за {} мс ({} потоков)",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt), options.getWarmupConcurrency());
+    }
+
+    /**
+     * Восстановить документ по метаданным. Документы без файла содержимого пропускаются.
+     */
+    private Optional<Document> loadDocument(DocumentMetadata metadata) {
+        Document document;
+        if (options.isLazyContent()) {
+            long contentLength;
+            if (metadata.getContentLength() != null) {
+                if (!fileStorageService.hasDocumentContent(metadata.getId())) {
+                    return Optional.empty();
+                }
+                contentLength = metadata.getContentLength();
+            } else {
+                // Метаданные без размера: размер берётся из хранилища и попадает в следующий снимок
+                OptionalLong size = fileStorageService.getDocumentContentSize(metadata.getId());
+                if (size.isEmpty()) {
+                    return Optional.empty();
+                }
+                contentLength = size.getAsLong();
+                lengthsMeasured.set(true);
+            }
+            document = Document.withLazyContent(
+                    metadata.getId(),
+                    metadata.getName(),
+                    metadata.getPasswordHash(),
+                    contentLoader
+            );
+            document.setContentLength(contentLength);
+        } else {
+            Optional<byte[]> content = fileStorageService.loadDocumentContent(metadata.getId());
+            if (content.isEmpty()) {
+                return Optional.empty();
+            }
+            document = new Document(
+                    metadata.getId(),
+                    metadata.getName(),
+                    content.get(),
+                    metadata.getPasswordHash()
+            );
+            cacheContent(document);
+        }
+        document.setCreatedAt(metadata.getCreatedAt());
+        document.setUpdatedAt(metadata.getUpdatedAt());
+        document.setVersion(metadata.getVersion() != null ? metadata.getVersion() : 0);
+        return Optional.of(document);
+    }
+
+    /**
+     * Прочитать содержимое документа по требованию: из очереди отложенной записи, кэша или с диска
+     */
+    private byte[] readContent(String id) {
+        if (writeBehind != null) {
+            Optional<byte[]> pending = writeBehind.pendingContent(id);
+            if (pending.isPresent()) {
+                return pending.get();
+            }
         }
+        return contentCache != null ? contentCache.get(id, this::loadContent) : loadContent(id);
+    }
+
+    /**
+     * Прочитать содержимое документа с диска
+     */
+    private byte[] loadContent(String id) {
+        return fileStorageService.loadDocumentContent(id)
+                .orElseThrow(() -> new IllegalStateException("Содержимое документа " + id + " не найдено на диске"));
     }
 
     /**
-     * Сохранить документ в память и на диск
+     * Сохранить документ в память и на диск без проверки версии.
+     * При отложенной записи на диск документ только ставится в очередь.
+     * Изменять следует копию ({@link Document#copy()}): иначе откат отклонённой записи нечего вернуть.
      */
     public void save(Document document) {
-        documents.put(document.getId(), document);
-        saveToDisk(document);
-        saveMetadataToDisk();
+        documentLocks.write(document.getId(), () -> {
+            Publication publication = writeLocked(() ->
+                    publishVersion(document, nextVersion(document), writeBehind == null));
+            persist(document, publication);
+            return null;
+        });
+    }
+
+    /**
+     * Сохранить документ, только если его версия в репозитории всё ещё равна expectedVersion.
+     * Изменять следует копию ({@link Document#copy()}), а не экземпляр, который видят другие читатели.
+     *
+     * @return новая версия документа или конфликт с текущей версией в репозитории
+     */
+    public SaveResult compareAndSave(Document document, long expectedVersion) {
+        return documentLocks.write(document.getId(), () -> {
+            AtomicReference<Publication> publication = new AtomicReference<>();
+            SaveResult result = writeLocked(() -> {
+                Document current = documents.get(document.getId());
+                if (current == null) {
+                    return SaveResult.conflict(SaveResult.ABSENT);
+                }
+                if (current.getVersion() != expectedVersion) {
+                    return SaveResult.conflict(current.getVersion());
+                }
+                publication.set(publishVersion(document, expectedVersion + 1, writeBehind == null));
+                return SaveResult.saved(document.getVersion());
+            });
+            if (result.isSaved()) {
+                persist(document, publication.get());
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Записать опубликованный документ на диск или поставить его в очередь отложенной записи.
+     * Если очередь отклонила документ, публикация откатывается к вытесненному экземпляру — поэтому
+     * вызывающие изменяют копию документа, а вытесненный экземпляр остаётся прежним.
+     */
+    private void persist(Document document, Publication publication) {
+        if (writeBehind == null) {
+            saveToDisk(document);
+            cacheContent(document);
+            journal.appendPut(toMetadata(document));
+            return;
+        }
+        byte[] content = document.isContentLoaded() ? document.getEncryptedContent() : null;
+        try {
+            writeBehind.enqueue(PendingWrite.put(toMetadata(document), content));
+        } catch (RuntimeException e) {
+            writeLocked(() -> restore(document.getId(), publication));
+            throw e;
+        }
+        statistics.recordPut(document, publication.replaced() == null);
+        cacheContent(document);
+    }
+
+    /**
+     * Следующая версия сохраняемого документа; вызывается под блокировкой записи
+     */
+    private long nextVersion(Document document) {
+        Document current = documents.get(document.getId());
+        return current != null ? current.getVersion() + 1 : document.getVersion();
+    }
+
+    /**
+     * Опубликовать документ с заданной версией, запомнив вытесненный документ и его версию
+     * для отката; вызывается под блокировкой записи
+     */
+    private Publication publishVersion(Document document, long version, boolean countEvent) {
+        Document current = documents.get(document.getId());
+        long currentVersion = current != null ? current.getVersion() : SaveResult.ABSENT;
+        document.setVersion(version);
+        return new Publication(publish(document, countEvent), currentVersion);
+    }
+
+    /**
+     * Вернуть документ, вытесненный публикацией; вызывается под блокировкой записи
+     */
+    private void restore(String id, Publication publication) {
+        if (publication.replaced() == null) {
+            unpublish(id, false);
+        } else {
+            publication.replaced().setVersion(publication.replacedVersion());
+            publish(publication.replaced(), false);
+        }
+    }
+
+    /**
+     * Сохранить пакет документов: содержимое записывается параллельно, метаданные — одной
+     * дозаписью в журнал. Документы пакета становятся видны в памяти все сразу; если запись
+     * метаданных не удалась, пакет целиком откатывается. Пакет пишется под блокировками своих
+     * документов, а контрольная точка не снимает его в снимок до фиксации. При отложенной записи
+     * пакет пишется сразу, после того как очередь допишет уже поставленные в неё изменения.
+     */
+    public void saveAll(Collection<Document> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (writeBehind != null) {
+            writeBehind.flush();
+        }
+        List<Document> documentsToSave = List.copyOf(batch);
+        documentLocks.writeAll(documentsToSave.stream().map(Document::getId).toList(), () -> {
+            documentsToSave.parallelStream().forEach(this::saveToDisk);
+            batchCommitLock.readLock().lock();
+            try {
+                commitBatch(documentsToSave);
+            } finally {
+                batchCommitLock.readLock().unlock();
+            }
+            return null;
+        });
+        log.debug("Сохранён пакет из {} документов", documentsToSave.size());
+    }
+
+    /**
+     * Опубликовать пакет и записать его в журнал; при ошибке записи публикация откатывается
+     */
+    private void commitBatch(List<Document> documentsToSave) {
+        Map<String, Publication> previous = new HashMap<>();
+        List<Boolean> created = new ArrayList<>(documentsToSave.size());
+        writeLocked(() -> documentsToSave.forEach(document -> {
+            Publication publication = publishVersion(document, nextVersion(document), false);
+            previous.putIfAbsent(document.getId(), publication);
+            created.add(publication.replaced() == null);
+        }));
+        try {
+            journal.appendPuts(documentsToSave.stream().map(this::toMetadata).toList());
+        } catch (RuntimeException e) {
+            writeLocked(() -> previous.forEach(this::restore));
+            throw e;
+        }
+        for (int i = 0; i < documentsToSave.size(); i++) {
+            statistics.recordPut(documentsToSave.get(i), created.get(i));
+        }
+        documentsToSave.forEach(this::cacheContent);
+    }
+
+    /**
+     * Записать группу изменений из очереди отложенной записи: содержимое — параллельно,
+     * метаданные — одной дозаписью в журнал
+     */
+    private void writeBehindBatch(List<PendingWrite> batch) {
+        List<PendingWrite> puts = batch.stream().filter(write -> !write.isDelete()).toList();
+        List<String> deletes = batch.stream().filter(PendingWrite::isDelete).map(PendingWrite::id).toList();
+        puts.parallelStream()
+                .filter(write -> write.content() != null)
+                .forEach(write -> fileStorageService.saveDocumentContent(write.id(), write.content()));
+        deletes.forEach(fileStorageService::deleteDocumentContent);
+        if (!puts.isEmpty()) {
+            journal.appendPuts(puts.stream().map(PendingWrite::metadata).toList());
+        }
+        if (!deletes.isEmpty()) {
+            journal.appendDeletes(deletes);
+        }
     }
 
     /**
-     * Сохранить содержимое документа на диск
+     * Сохранить содержимое документа на диск.
+     * Содержимое, которое не загружалось в память, на диске уже актуально и не перезаписывается.
      */
     private void saveToDisk(Document document) {
+        if (!document.isContentLoaded()) {
+            return;
+        }
         fileStorageService.saveDocumentContent(document.getId(), document.getEncryptedContent());
     }
 
     /**
-     * Сохранить метаданные на диск
+     * Переместить содержимое документа в кэш, оставив в документе только ссылку на загрузчик
+     */
+    private void cacheContent(Document document) {
+        if (contentCache == null || !document.isContentLoaded()) {
+            return;
+        }
+        contentCache.put(document.getId(), document.getEncryptedContent());
+        document.detachContent(contentLoader);
+    }
+
+    /**
+     * Статистика кэша содержимого, если кэш включён
+     */
+    public Optional<ContentCache.Stats> getContentCacheStats() {
+        return Optional.ofNullable(contentCache).map(ContentCache::stats);
+    }
+
+    /**
+     * Метрики очереди отложенной записи, если она включена
+     */
+    public Optional<WriteBehindQueue.Stats> getWriteBehindStats() {
+        return Optional.ofNullable(writeBehind).map(WriteBehindQueue::stats);
+    }
+
+    /**
+     * Свернуть журнал метаданных в полный снимок metadata.json.
+     * При отложенной записи снимок содержит только уже записанные изменения.
      */
-    private void saveMetadataToDisk() {
-        List<DocumentMetadata> metadataList = documents.values().stream()
+    public void checkpoint() {
+        batchCommitLock.writeLock().lock();
+        try {
+            journal.checkpoint();
+        } finally {
+            batchCommitLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Дописать очередь отложенной записи, дождаться фиксации начатых записей,
+     * остановить поток фиксации журнала и пул параллельного сканирования
+     */
+    @Override
+    public void close() {
+        try {
+            stopWriters();
+        } finally {
+            scanner.close();
+        }
+    }
+
+    private void stopWriters() {
+        try {
+            if (writeBehind != null) {
+                writeBehind.close();
+            }
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Снимок метаданных для контрольной точки журнала; null, пока какой-либо пакет
+     * {@link #saveAll} опубликован, но ещё не зафиксирован. Блокировка только пробуется:
+     * пакет ждёт потока фиксации журнала, который и вызывает этот метод.
+     */
+    private List<DocumentMetadata> committedMetadataSnapshot() {
+        if (!batchCommitLock.writeLock().tryLock()) {
+            return null;
+        }
+        try {
+            return metadataSnapshot();
+        } finally {
+            batchCommitLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Снимок метаданных всех документов
+     */
+    private List<DocumentMetadata> metadataSnapshot() {
+        return documents.values().stream()
                 .map(this::toMetadata)
                 .collect(Collectors.toList());
-        String json = gson.toJson(metadataList);
-        fileStorageService.saveMetadata(json);
     }
 
     /**
@@ -103,6 +512,8 @@ public class DocumentRepository {
         metadata.setPasswordHash(document.getPasswordHash());
         metadata.setCreatedAt(document.getCreatedAt());
         metadata.setUpdatedAt(document.getUpdatedAt());
+        metadata.setContentLength(document.getContentLength());
+        metadata.setVersion(document.getVersion());
         return metadata;
     }
 
@@ -114,25 +525,49 @@ public class DocumentRepository {
     }
 
     /**
-     * Найти все документы используя Stream API
+     * Найти все документы, от новых к старым по дате создания
      */
     public List<Document> findAll() {
-        return documents.values().stream()
-                .sorted(Comparator.comparing(Document::getCreatedAt).reversed())
-                .collect(Collectors.toList());
+        return readLocked(createdIndex::newestFirst);
+    }
+
+    /**
+     * Страница всех документов от новых к старым по дате создания
+     *
+     * @param cursor курсор из предыдущей страницы или null для первой страницы
+     */
+    public DocumentPage findAll(String cursor, int limit) {
+        return readLocked(() -> createdIndex.page(null, null, cursor, limit));
     }
 
     /**
      * Удалить документ по ID
      */
     public boolean deleteById(String id) {
-        Document removed = documents.remove(id);
-        if (removed != null) {
-            fileStorageService.deleteDocumentContent(id);
-            saveMetadataToDisk();
+        return documentLocks.write(id, () -> {
+            Document removed = writeLocked(() -> unpublish(id, writeBehind == null));
+            if (removed == null) {
+                return false;
+            }
+            if (writeBehind != null) {
+                try {
+                    writeBehind.enqueue(PendingWrite.delete(id));
+                } catch (RuntimeException e) {
+                    writeLocked(() -> publish(removed, false));
+                    throw e;
+                }
+                statistics.recordDelete();
+            } else {
+                fileStorageService.deleteDocumentContent(id);
+            }
+            if (contentCache != null) {
+                contentCache.invalidate(id);
+            }
+            if (writeBehind == null) {
+                journal.appendDelete(id);
+            }
             return true;
-        }
-        return false;
+        });
     }
 
     /**
@@ -143,96 +578,253 @@ public class DocumentRepository {
     }
 
     /**
-     * Найти документы по имени (частичное совпадение) используя Stream API
+     * Найти документы по имени (частичное совпадение без учёта регистра), упорядоченные по имени
+     * с учётом правил русской локали. Кандидаты выбираются по индексу триграмм; запросы короче трёх символов проверяются перебором,
+     * параллельным при достаточном размере репозитория (см. {@link RepositoryOptions#getParallelScanThreshold()}).
      */
     public List<Document> findByNameContaining(String name) {
-        String lowerName = name.toLowerCase();
-        return documents.values().stream()
-                .filter(doc -> doc.getName().toLowerCase().contains(lowerName))
-                .sorted(Comparator.comparing(Document::getName))
-                .collect(Collectors.toList());
+        String query = NameIndex.normalize(name);
+        return readLocked(() -> scanner.scan(nameSearchSource(query), stream -> stream
+                .filter(doc -> nameIndex.normalizedName(doc.getId()).contains(query))
+                .sorted(nameOrderIndex.order())
+                .collect(Collectors.toList())));
     }
 
     /**
-     * Найти документы по диапазону дат создания используя Stream API
+     * Первые limit документов, чьё имя начинается с префикса (без учёта регистра),
+     * в том же порядке имён по ключам сортировки русской локали, что и остальные выборки по имени.
+     * Просматривается только диапазон упорядоченного по имени индекса с теми же первичными весами,
+     * что у префикса, и обход останавливается на limit-м совпадении. Кроме совпадений в диапазоне
+     * лежат лишь имена, отличающиеся от префикса буквой ё или пробелами и дефисами.
+     */
+    public List<Document> findByNamePrefix(String prefix, int limit) {
+        TopK.checkK(limit);
+        String normalized = NameIndex.normalize(prefix);
+        return readLocked(() -> nameOrderIndex.primaryRange(normalized)
+                .filter(doc -> nameIndex.normalizedName(doc.getId()).startsWith(normalized))
+                .limit(limit)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Ленивый поток всех документов в заданном порядке: даты — от новых к старым по индексу,
+     * имя — по ключам сортировки русской локали. Документы выдаются по мере
+     * потребления, поэтому короткое замыкание (findFirst, limit) не обходит остальное.
+     * Поток слабо согласован: параллельные изменения могут быть видны или не видны,
+     * но исключений не вызывают. Поддерживает разбиение для параллельной обработки.
+     */
+    public Stream<Document> streamAll(DocumentQuery.SortKey order) {
+        Iterator<Document> iterator = switch (order) {
+            case CREATED_AT -> createdIndex.descending(null, null).iterator();
+            case UPDATED_AT -> updatedIndex.descending(null, null).iterator();
+            case NAME -> nameOrderIndex.ascending().iterator();
+        };
+        return lazyStream(iterator, count());
+    }
+
+    /**
+     * Ленивый поток документов, имя которых содержит подстроку (без учёта регистра), без сортировки.
+     * Кандидаты берутся из индекса триграмм; для запросов короче трёх символов перебираются все документы.
+     */
+    public Stream<Document> streamByName(String name) {
+        String query = NameIndex.normalize(name);
+        Stream<Document> source = nameIndex.candidates(query)
+                .map(ids -> ids.stream().map(documents::get).filter(Objects::nonNull))
+                .orElseGet(() -> documents.values().stream());
+        return source.filter(doc -> {
+            String indexed = nameIndex.normalizedName(doc.getId());
+            return indexed != null && indexed.contains(query);
+        });
+    }
+
+    /**
+     * Поток над итератором по живому представлению: размер — оценка, разбиение пакетами
+     */
+    private static Stream<Document> lazyStream(Iterator<Document> iterator, long estimatedSize) {
+        Spliterator<Document> spliterator = Spliterators.spliterator(iterator, estimatedSize,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.CONCURRENT);
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    /**
+     * Документы для проверки по подстроке имени: кандидаты из индекса триграмм
+     * или все документы, если запрос короче триграммы
+     */
+    private Collection<Document> nameSearchSource(String query) {
+        return nameIndex.candidates(query)
+                .<Collection<Document>>map(ids -> ids.stream().map(documents::get).filter(Objects::nonNull).toList())
+                .orElseGet(documents::values);
+    }
+
+    /**
+     * Страница документов по имени (частичное совпадение), упорядоченных по ключу сортировки имени и id
+     *
+     * @param cursor курсор из предыдущей страницы или null для первой страницы
+     */
+    public DocumentPage findByNameContaining(String name, String cursor, int limit) {
+        PageCursor.checkLimit(limit);
+        NameOrderIndex.Key after = cursor != null ? NameOrderIndex.Key.fromCursor(cursor) : null;
+        String query = NameIndex.normalize(name);
+        return readLocked(() -> {
+            List<Document> found = scanner.scan(nameSearchSource(query), stream -> stream
+                    .filter(doc -> nameIndex.normalizedName(doc.getId()).contains(query))
+                    .filter(doc -> after == null || nameOrderIndex.keyOf(doc).compareTo(after) > 0)
+                    .collect(TopK.collector(limit + 1, nameOrderIndex.order())));
+            if (found.size() <= limit) {
+                return new DocumentPage(found, null);
+            }
+            Document last = found.get(limit - 1);
+            return new DocumentPage(found.subList(0, limit), nameOrderIndex.keyOf(last).toCursor());
+        });
+    }
+
+    /**
+     * Найти документы, созданные строго между from и to, от новых к старым
      */
     public List<Document> findByDateRange(LocalDateTime from, LocalDateTime to) {
-        return documents.values().stream()
-                .filter(doc -> {
-                    LocalDateTime createdAt = doc.getCreatedAt();
-                    return createdAt.isAfter(from) && createdAt.isBefore(to);
-                })
-                .sorted(Comparator.comparing(Document::getCreatedAt).reversed())
-                .collect(Collectors.toList());
+        return readLocked(() -> createdIndex.between(from, to));
     }
 
     /**
-     * Получить документы, отсортированные по дате обновления используя Stream API
+     * Получить документы, отсортированные по дате обновления (сначала последние изменённые).
+     * Порядок соответствует моменту последнего сохранения документа.
      */
     public List<Document> findAllSortedByUpdatedAt() {
-        return documents.values().stream()
-                .sorted(Comparator.comparing(Document::getUpdatedAt).reversed())
-                .collect(Collectors.toList());
+        return readLocked(updatedIndex::newestFirst);
     }
 
     /**
-     * Получить количество документов используя Stream API
+     * k последних созданных документов, от новых к старым; стоимость O(k) по индексу дат
      */
-    public int count() {
-        return (int) documents.values().stream().count();
+    public List<Document> latestCreated(int k) {
+        return readLocked(() -> createdIndex.newest(k));
     }
 
     /**
-     * Класс для метаданных документа
+     * k последних изменённых документов, от новых к старым; стоимость O(k) по индексу дат
      */
-    private static class DocumentMetadata {
-        private String id;
-        private String name;
-        private String passwordHash;
-        private LocalDateTime createdAt;
-        private LocalDateTime updatedAt;
+    public List<Document> latestUpdated(int k) {
+        return readLocked(() -> updatedIndex.newest(k));
+    }
 
-        public String getId() {
-            return id;
-        }
+    /**
+     * Страница документов, созданных строго между from и to, от новых к старым
+     */
+    public DocumentPage findByDateRange(LocalDateTime from, LocalDateTime to, String cursor, int limit) {
+        return readLocked(() -> createdIndex.page(from, to, cursor, limit));
+    }
 
-        public void setId(String id) {
-            this.id = id;
-        }
+    /**
+     * Страница документов, отсортированных по дате обновления (сначала последние изменённые)
+     */
+    public DocumentPage findAllSortedByUpdatedAt(String cursor, int limit) {
+        return readLocked(() -> updatedIndex.page(null, null, cursor, limit));
+    }
 
-        public String getName() {
-            return name;
-        }
+    /**
+     * Выполнить составной запрос; способ доступа выбирается планировщиком (см. {@link #explain})
+     */
+    public List<Document> query(DocumentQuery query) {
+        return readLocked(() -> queryEngine.execute(query, queryEngine.plan(query)));
+    }
 
-        public void setName(String name) {
-            this.name = name;
-        }
+    /**
+     * План, по которому был бы выполнен запрос при текущем содержимом репозитория
+     */
+    public QueryPlan explain(DocumentQuery query) {
+        return readLocked(() -> queryEngine.plan(query));
+    }
 
-        public String getPasswordHash() {
-            return passwordHash;
-        }
+    /**
+     * Получить количество документов без перебора
+     */
+    public int count() {
+        return (int) statistics.documentCount();
+    }
 
-        public void setPasswordHash(String passwordHash) {
-            this.passwordHash = passwordHash;
-        }
+    /**
+     * Снимок статистики репозитория; строится по счётчикам, без перебора документов
+     */
+    public RepositoryStatistics.Snapshot getStatistics() {
+        return readLocked(statistics::snapshot);
+    }
 
-        public LocalDateTime getCreatedAt() {
-            return createdAt;
+    /**
+     * Поместить документ в память и обновить индексы; вызывается под блокировкой записи
+     */
+    private Document publish(Document document) {
+        return publish(document, true);
+    }
+
+    /**
+     * @param countEvent учитывать ли создание или изменение в статистике событий
+     *                   (false для пакета до записи журнала и при откате пакета)
+     */
+    private Document publish(Document document, boolean countEvent) {
+        boolean created = statistics.onPut(document);
+        if (countEvent) {
+            statistics.recordPut(document, created);
         }
+        nameIndex.add(document.getId(), document.getName());
+        nameOrderIndex.put(document);
+        createdIndex.put(document);
+        updatedIndex.put(document);
+        return documents.put(document.getId(), document);
+    }
 
-        public void setCreatedAt(LocalDateTime createdAt) {
-            this.createdAt = createdAt;
+    /**
+     * Удалить документ из памяти и индексов; вызывается под блокировкой записи
+     */
+    private Document unpublish(String id, boolean countEvent) {
+        Document removed = documents.remove(id);
+        if (removed != null) {
+            statistics.onRemove(id);
+            if (countEvent) {
+                statistics.recordDelete();
+            }
+            nameIndex.remove(id);
+            nameOrderIndex.remove(id);
+            createdIndex.remove(id);
+            updatedIndex.remove(id);
         }
+        return removed;
+    }
 
-        public LocalDateTime getUpdatedAt() {
-            return updatedAt;
+    /**
+     * Изменение набора документов в памяти. Выборки по нескольким документам выполняются
+     * под блокировкой чтения и не видят пакет {@link #saveAll} частично.
+     */
+    private <T> T writeLocked(Supplier<T> mutation) {
+        publishLock.writeLock().lock();
+        try {
+            return mutation.get();
+        } finally {
+            publishLock.writeLock().unlock();
         }
+    }
 
-        public void setUpdatedAt(LocalDateTime updatedAt) {
-            this.updatedAt = updatedAt;
+    private void writeLocked(Runnable mutation) {
+        writeLocked(() -> {
+            mutation.run();
+            return null;
+        });
+    }
+
+    private <T> T readLocked(Supplier<T> query) {
+        publishLock.readLock().lock();
+        try {
+            return query.get();
+        } finally {
+            publishLock.readLock().unlock();
         }
     }
 
+    /**
+     * Документ, вытесненный публикацией, и его версия до публикации — для отката
+     */
+    private record Publication(Document replaced, long replacedVersion) {
+    }
+
     /**
      * Адаптер для сериализации/десериализации LocalDateTime
      */
@@ -0,0 +1,19 @@
+package ru.itpark.sb.repository;
+
+/**
+ * Гарантия сохранности изменения к моменту возврата из метода записи репозитория
+ */
+public enum DurabilityMode {
+    /**
+     * Без fsync: изменение передано операционной системе и может потеряться при сбое питания
+     */
+    NONE,
+    /**
+     * Один fsync журнала (и содержимого документов) на группу изменений, зафиксированных вместе
+     */
+    BATCH,
+    /**
+     * Отдельный fsync на каждое изменение, даже если изменения собраны в группу
+     */
+    PER_OPERATION
+}
@@ -0,0 +1,149 @@
+package ru.itpark.sb.repository;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Групповая фиксация (group commit) записей журнала.
+ * <p>
+ * Писатели ставят записи в очередь и ждут свой {@link CompletableFuture}. Отдельный виртуальный
+ * поток забирает первую запись, добирает к ней записи, пришедшие в течение окна (или пока группа
+ * не достигнет максимального размера), и передаёт группу приёмнику одним вызовом — одна дозапись
+ * и один fsync вместо отдельных на каждого писателя. После записи группы все её future завершаются
+ * вместе; при ошибке все незавершённые future группы завершаются этой ошибкой.
+ * <p>
+ * Без окна (0) группа состоит из записей, накопившихся, пока писалась предыдущая группа.
+ */
+@Slf4j
+class GroupCommitWriter<T> implements AutoCloseable {
+    private final Commit<T> stop = new Commit<>(null, List.of(), null);
+
+    private final BlockingQueue<Commit<T>> queue = new LinkedBlockingQueue<>();
+    private final ReentrantReadWriteLock state = new ReentrantReadWriteLock();
+    private final Consumer<List<Commit<T>>> sink;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final Thread thread;
+    private boolean closed;
+
+    /**
+     * @param sink     запись группы; может сам завершать future отдельных записей раньше остальных
+     * @param window   сколько ждать других писателей после первой записи группы
+     * @param maxBatch максимальное число записей в группе
+     */
+    GroupCommitWriter(Consumer<List<Commit<T>>> sink, Duration window, int maxBatch) {
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("Размер группы должен быть положительным");
+        }
+        this.sink = sink;
+        this.windowNanos = window.toNanos();
+        this.maxBatch = maxBatch;
+        this.thread = Thread.ofVirtual().name("edo-group-commit").start(this::run);
+    }
+
+    /**
+     * Поставить запись в очередь фиксации
+     *
+     * @param entry      записываемые данные
+     * @param contentIds документы, содержимое которых фиксируется вместе с записью
+     */
+    CompletableFuture<Void> submit(T entry, Collection<String> contentIds) {
+        Commit<T> commit = new Commit<>(entry, contentIds, new CompletableFuture<>());
+        state.readLock().lock();
+        try {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Журнал метаданных закрыт"));
+            }
+            queue.add(commit);
+        } finally {
+            state.readLock().unlock();
+        }
+        return commit.done();
+    }
+
+    /**
+     * Зафиксировать уже поставленные записи и остановить поток фиксации
+     */
+    @Override
+    public void close() {
+        state.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.add(stop);
+        } finally {
+            state.writeLock().unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Commit<T>> batch = new ArrayList<>();
+        boolean stopping = false;
+        try {
+            while (!stopping) {
+                Commit<T> first = queue.take();
+                if (first == stop) {
+                    break;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    Commit<T> next = windowNanos > 0
+                            ? queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+                            : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (next == stop) {
+                        stopping = true;
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            IllegalStateException error = new IllegalStateException("Поток фиксации журнала прерван", e);
+            batch.forEach(commit -> commit.done().completeExceptionally(error));
+            queue.forEach(commit -> {
+                if (commit != stop) {
+                    commit.done().completeExceptionally(error);
+                }
+            });
+        }
+    }
+
+    private void write(List<Commit<T>> batch) {
+        try {
+            sink.accept(batch);
+            batch.forEach(commit -> commit.done().complete(null));
+        } catch (Throwable e) {
+            log.error("Ошибка при фиксации группы из {} записей журнала: {}", batch.size(), e.getMessage());
+            batch.forEach(commit -> commit.done().completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Запись, ожидающая фиксации
+     */
+    record Commit<T>(T entry, Collection<String> contentIds, CompletableFuture<Void> done) {
+    }
+}
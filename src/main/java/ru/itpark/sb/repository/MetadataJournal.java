@@ -0,0 +1,318 @@
+package ru.itpark.sb.repository;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import lombok.extern.slf4j.Slf4j;
+import ru.itpark.sb.service.FileStorageService;
+
+import java.lang.reflect.Type;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Журнал изменений метаданных (append-only).
+ * Каждое изменение документа дописывает одну запись в конец журнала, поэтому стоимость записи
+ * пропорциональна изменению, а не размеру репозитория. Периодически журнал сворачивается
+ * в полный снимок metadata.json и очищается.
+ * <p>
+ * Дозаписи одновременных писателей собираются в группы {@link GroupCommitWriter}: группа пишется
+ * одной дозаписью, а fsync выполняется согласно {@link DurabilityMode}. Метод записи возвращает
+ * управление, когда изменение зафиксировано с выбранной гарантией.
+ * <p>
+ * При отложенной записи документы в памяти опережают диск, поэтому снимок для контрольной точки
+ * строится не из памяти, а из состояния, которое журнал сам уже записал.
+ */
+@Slf4j
+class MetadataJournal implements AutoCloseable {
+    private final FileStorageService fileStorageService;
+    private final Gson gson;
+    private final int checkpointInterval;
+    private final DurabilityMode durability;
+    private final Supplier<Collection<DocumentMetadata>> metadataSnapshot;
+    private final GroupCommitWriter<Entry> writer;
+    private final Object lock = new Object();
+    private int recordsSinceCheckpoint;
+    /**
+     * Записанное состояние метаданных (снимок и журнал); ведётся, только если снимок строится из журнала
+     */
+    private Map<String, DocumentMetadata> writtenState;
+
+    /**
+     * @param metadataSnapshot    метаданные всех документов в памяти для контрольной точки;
+     *                            null, если сейчас снимок строить нельзя
+     * @param snapshotFromJournal строить снимок из записанного журналом состояния, а не из памяти
+     */
+    MetadataJournal(FileStorageService fileStorageService, Gson gson, int checkpointInterval,
+                    DurabilityMode durability, Duration groupCommitWindow, int groupCommitMaxBatch,
+                    Supplier<Collection<DocumentMetadata>> metadataSnapshot, boolean snapshotFromJournal) {
+        if (checkpointInterval <= 0) {
+            throw new IllegalArgumentException("Интервал контрольной точки должен быть положительным");
+        }
+        this.fileStorageService = fileStorageService;
+        this.gson = gson;
+        this.checkpointInterval = checkpointInterval;
+        this.durability = durability;
+        this.metadataSnapshot = metadataSnapshot;
+        this.writtenState = snapshotFromJournal ? new HashMap<>() : null;
+        this.writer = new GroupCommitWriter<>(this::write, groupCommitWindow, groupCommitMaxBatch);
+    }
+
+    /**
+     * Восстановить состояние метаданных: загрузить снимок и применить к нему записи журнала.
+     * Воспроизведение останавливается на первой повреждённой записи, а журнал обрезается по
+     * последней целой записи до того, как в него начнут дописывать.
+     */
+    Map<String, DocumentMetadata> replay() {
+        Map<String, DocumentMetadata> state = new LinkedHashMap<>();
+        Type listType = new TypeToken<List<DocumentMetadata>>() {
+        }.getType();
+        List<DocumentMetadata> snapshot;
+        try {
+            snapshot = gson.fromJson(fileStorageService.loadMetadata(), listType);
+        } catch (JsonParseException e) {
+            // Пустой репозиторий вместо повреждённого снимка затёр бы его при следующей контрольной точке
+            throw new IllegalStateException("Снимок метаданных metadata.json повреждён: " + e.getMessage(), e);
+        }
+        if (snapshot != null) {
+            snapshot.forEach(metadata -> state.put(metadata.getId(), metadata));
+        }
+
+        List<String> records = fileStorageService.loadJournal();
+        int applied = 0;
+        int valid = 0;
+        for (String line : records) {
+            if (!line.isBlank()) {
+                JournalRecord record;
+                try {
+                    record = gson.fromJson(line, JournalRecord.class);
+                } catch (JsonParseException e) {
+                    // Недописанная последняя запись после аварийного завершения
+                    log.warn("Повреждённая запись журнала метаданных, воспроизведение остановлено: {}", e.getMessage());
+                    break;
+                }
+                record.applyTo(state);
+                applied++;
+            }
+            valid++;
+        }
+        // Новые записи дописываются в конец файла и не должны склеиться с обрывком
+        fileStorageService.truncateJournal(valid);
+        synchronized (lock) {
+            recordsSinceCheckpoint = applied;
+            if (writtenState != null) {
+                writtenState = new HashMap<>(state);
+            }
+        }
+        if (applied > 0) {
+            log.info("Воспроизведено {} записей журнала метаданных", applied);
+        }
+        return state;
+    }
+
+    /**
+     * Записать создание или изменение документа; содержимое документа фиксируется вместе с записью
+     */
+    void appendPut(DocumentMetadata metadata) {
+        append(List.of(JournalRecord.put(metadata)), List.of(metadata.getId()));
+    }
+
+    /**
+     * Записать пакет изменений одной дозаписью в журнал
+     */
+    void appendPuts(List<DocumentMetadata> batch) {
+        append(batch.stream().map(JournalRecord::put).toList(),
+                batch.stream().map(DocumentMetadata::getId).toList());
+    }
+
+    /**
+     * Записать удаление документа
+     */
+    void appendDelete(String id) {
+        append(List.of(JournalRecord.delete(id)), List.of());
+    }
+
+    /**
+     * Записать удаление нескольких документов одной дозаписью
+     */
+    void appendDeletes(List<String> ids) {
+        append(ids.stream().map(JournalRecord::delete).toList(), List.of());
+    }
+
+    /**
+     * Поставить записи в группу фиксации и дождаться её записи.
+     * Изменение в памяти должно быть выполнено до вызова: тогда любая запись либо попадает
+     * в снимок, либо остаётся в журнале после контрольной точки.
+     */
+    private void append(List<JournalRecord> records, List<String> contentIds) {
+        List<String> lines = records.stream()
+                .map(gson::toJson)
+                .toList();
+        try {
+            writer.submit(new Entry(records, lines), contentIds).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new RuntimeException("Ошибка при записи журнала метаданных", e.getCause());
+        }
+    }
+
+    /**
+     * Записать группу в журнал с fsync согласно режиму и при необходимости свернуть журнал в снимок.
+     * Записи группы подтверждаются сразу после fsync, до контрольной точки.
+     */
+    private void write(List<GroupCommitWriter.Commit<Entry>> batch) {
+        synchronized (lock) {
+            int written = 0;
+            if (durability == DurabilityMode.PER_OPERATION) {
+                for (GroupCommitWriter.Commit<Entry> commit : batch) {
+                    fileStorageService.syncDocumentContent(commit.contentIds());
+                    fileStorageService.appendJournal(commit.entry().lines());
+                    fileStorageService.syncJournal();
+                    applyWritten(commit.entry());
+                    written += commit.entry().lines().size();
+                    commit.done().complete(null);
+                }
+            } else {
+                List<String> lines = batch.stream().flatMap(commit -> commit.entry().lines().stream()).toList();
+                if (durability == DurabilityMode.BATCH) {
+                    fileStorageService.syncDocumentContent(
+                            batch.stream().flatMap(commit -> commit.contentIds().stream()).toList());
+                }
+                fileStorageService.appendJournal(lines);
+                if (durability == DurabilityMode.BATCH) {
+                    fileStorageService.syncJournal();
+                }
+                batch.forEach(commit -> {
+                    applyWritten(commit.entry());
+                    commit.done().complete(null);
+                });
+                written = lines.size();
+            }
+            recordsSinceCheckpoint += written;
+            if (recordsSinceCheckpoint >= checkpointInterval) {
+                // Записи группы уже зафиксированы: сбой свёртки не должен вернуться писателям ошибкой
+                try {
+                    checkpoint();
+                } catch (RuntimeException e) {
+                    log.error("Ошибка при свёртке журнала метаданных, повтор после следующей группы: {}",
+                            e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private void applyWritten(Entry entry) {
+        if (writtenState != null) {
+            entry.records().forEach(record -> record.applyTo(writtenState));
+        }
+    }
+
+    /**
+     * Свернуть журнал в снимок: из записанного журналом состояния или из метаданных в памяти.
+     * Снимок строится под блокировкой журнала, поэтому в него попадает всё, что уже записано в журнал.
+     * Если источник снимка вернул null (в памяти есть незафиксированные изменения), контрольная
+     * точка откладывается до следующей группы записей.
+     */
+    void checkpoint() {
+        synchronized (lock) {
+            Collection<DocumentMetadata> snapshot = writtenState != null
+                    ? List.copyOf(writtenState.values())
+                    : metadataSnapshot.get();
+            if (snapshot == null) {
+                log.debug("Контрольная точка отложена: в памяти есть незафиксированный пакет");
+                return;
+            }
+            checkpoint(snapshot);
+        }
+    }
+
+    /**
+     * Сохранить полный снимок метаданных и очистить журнал.
+     * Снимок заменяется атомарно и уже сброшен на диск, когда журнал очищается; повторное
+     * применение журнала к снимку идемпотентно, поэтому сбой между этими шагами не теряет данных.
+     */
+    void checkpoint(Collection<DocumentMetadata> snapshot) {
+        synchronized (lock) {
+            if (writtenState != null) {
+                Map<String, DocumentMetadata> state = new HashMap<>();
+                snapshot.forEach(metadata -> state.put(metadata.getId(), metadata));
+                writtenState = state;
+            }
+            fileStorageService.saveMetadata(gson.toJson(snapshot));
+            fileStorageService.clearJournal();
+            recordsSinceCheckpoint = 0;
+            log.debug("Журнал метаданных свёрнут в снимок ({} документов)", snapshot.size());
+        }
+    }
+
+    /**
+     * Зафиксировать поставленные записи и остановить поток фиксации
+     */
+    @Override
+    public void close() {
+        writer.close();
+    }
+
+    /**
+     * Количество записей журнала с последней контрольной точки
+     */
+    int pendingRecords() {
+        synchronized (lock) {
+            return recordsSinceCheckpoint;
+        }
+    }
+
+    /**
+     * Записи одной операции и их строки в журнале
+     */
+    private record Entry(List<JournalRecord> records, List<String> lines) {
+    }
+
+    /**
+     * Запись журнала метаданных
+     */
+    private static class JournalRecord {
+        private static final String PUT = "PUT";
+        private static final String DELETE = "DELETE";
+
+        private String op;
+        private String id;
+        private DocumentMetadata metadata;
+
+        static JournalRecord put(DocumentMetadata metadata) {
+            JournalRecord record = new JournalRecord();
+            record.op = PUT;
+            record.id = metadata.getId();
+            record.metadata = metadata;
+            return record;
+        }
+
+        static JournalRecord delete(String id) {
+            JournalRecord record = new JournalRecord();
+            record.op = DELETE;
+            record.id = id;
+            return record;
+        }
+
+        void applyTo(Map<String, DocumentMetadata> state) {
+            if (PUT.equals(op) && metadata != null) {
+                state.put(id, metadata);
+            } else if (DELETE.equals(op)) {
+                state.remove(id);
+            } else {
+                log.warn("Неизвестная запись журнала метаданных пропущена: {}", op);
+            }
+        }
+    }
+}
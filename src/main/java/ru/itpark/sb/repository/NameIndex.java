@@ -0,0 +1,112 @@
+package ru.itpark.sb.repository;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Инвертированный индекс триграмм по нормализованным именам документов.
+ * Поиск подстроки пересекает списки документов для триграмм запроса, так что
+ * окончательная проверка contains выполняется только для кандидатов.
+ */
+class NameIndex {
+    private static final int GRAM_LENGTH = 3;
+
+    private final Map<String, Set<String>> postings = new ConcurrentHashMap<>();
+    private final Map<String, String> normalizedNames = new ConcurrentHashMap<>();
+
+    /**
+     * Нормализация имени для поиска без учёта регистра
+     */
+    static String normalize(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Добавить документ в индекс или обновить его имя
+     */
+    void add(String id, String name) {
+        String normalized = normalize(name);
+        String previous = normalizedNames.put(id, normalized);
+        if (normalized.equals(previous)) {
+            return;
+        }
+        if (previous != null) {
+            Set<String> remaining = grams(normalized);
+            grams(previous).stream()
+                    .filter(gram -> !remaining.contains(gram))
+                    .forEach(gram -> removePosting(gram, id));
+        }
+        grams(normalized).forEach(gram -> postings.computeIfAbsent(gram, key -> ConcurrentHashMap.newKeySet()).add(id));
+    }
+
+    /**
+     * Удалить документ из индекса
+     */
+    void remove(String id) {
+        String previous = normalizedNames.remove(id);
+        if (previous != null) {
+            grams(previous).forEach(gram -> removePosting(gram, id));
+        }
+    }
+
+    /**
+     * Нормализованное имя документа на момент индексации
+     */
+    String normalizedName(String id) {
+        return normalizedNames.get(id);
+    }
+
+    /**
+     * Кандидаты для поиска подстроки (нормализованной); пусто, если запрос короче триграммы
+     * и индекс не может сузить поиск
+     */
+    Optional<Set<String>> candidates(String normalizedQuery) {
+        if (normalizedQuery.length() < GRAM_LENGTH) {
+            return Optional.empty();
+        }
+        List<Set<String>> lists = grams(normalizedQuery).stream()
+                .map(gram -> postings.getOrDefault(gram, Set.of()))
+                .sorted(Comparator.comparingInt(Set::size))
+                .toList();
+        Set<String> result = new HashSet<>(lists.get(0));
+        for (int i = 1; i < lists.size() && !result.isEmpty(); i++) {
+            result.retainAll(lists.get(i));
+        }
+        return Optional.of(result);
+    }
+
+    /**
+     * Оценка числа кандидатов: размер самого короткого списка среди триграмм запроса;
+     * -1, если запрос короче триграммы
+     */
+    int estimate(String normalizedQuery) {
+        if (normalizedQuery.length() < GRAM_LENGTH) {
+            return -1;
+        }
+        return grams(normalizedQuery).stream()
+                .mapToInt(gram -> postings.getOrDefault(gram, Set.of()).size())
+                .min()
+                .orElse(0);
+    }
+
+    private void removePosting(String gram, String id) {
+        postings.computeIfPresent(gram, (key, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private static Set<String> grams(String normalized) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= normalized.length(); i++) {
+            grams.add(normalized.substring(i, i + GRAM_LENGTH));
+        }
+        return grams;
+    }
+}
@@ -0,0 +1,157 @@
+package ru.itpark.sb.repository;
+
+import ru.itpark.sb.domain.Document;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * Упорядоченный по имени индекс документов.
+ * Для каждого имени один раз при сохранении вычисляется ключ сортировки {@link Collator}
+ * (русская локаль: кириллица и латиница в привычном порядке, регистр учитывается только
+ * при прочих равных), и дальше документы сравниваются побайтово по этому ключу.
+ * <p>
+ * Ключ начинается с первичных весов имени, которые не различают регистр, поэтому все имена
+ * с общим началом лежат в индексе подряд — поиск по префиксу читает только этот диапазон.
+ */
+class NameOrderIndex {
+    private static final Locale LOCALE = Locale.forLanguageTag("ru-RU");
+
+    private final Collator collator = Collator.getInstance(LOCALE);
+    private final Collator primaryCollator = primaryCollator();
+    private final ConcurrentSkipListMap<Key, Document> entries = new ConcurrentSkipListMap<>();
+    private final Map<String, Key> keysById = new ConcurrentHashMap<>();
+    private final Comparator<Document> order = (left, right) -> keyOf(left).compareTo(keyOf(right));
+
+    /**
+     * Добавить документ; ключ сортировки пересчитывается, только если имя изменилось
+     */
+    void put(Document document) {
+        Key previous = keysById.get(document.getId());
+        if (previous != null && previous.name.equals(document.getName())) {
+            entries.put(previous, document);
+            return;
+        }
+        Key key = new Key(sortKey(document.getName()), document.getId(), document.getName());
+        keysById.put(document.getId(), key);
+        if (previous != null) {
+            entries.remove(previous);
+        }
+        entries.put(key, document);
+    }
+
+    /**
+     * Удалить документ из индекса
+     */
+    void remove(String id) {
+        Key previous = keysById.remove(id);
+        if (previous != null) {
+            entries.remove(previous);
+        }
+    }
+
+    /**
+     * Порядок документов по ключу сортировки имени, затем по id; документы должны быть в индексе
+     */
+    Comparator<Document> order() {
+        return order;
+    }
+
+    /**
+     * Все документы в порядке имён (живое представление)
+     */
+    Collection<Document> ascending() {
+        return entries.values();
+    }
+
+    /**
+     * Документы в порядке имён, ключ сортировки которых начинается с первичных весов префикса
+     * (ленивый поток). Первичные веса не различают регистр и е/ё, а пробелы и дефисы пропускают,
+     * поэтому в диапазон попадают все имена, начинающиеся с префикса без учёта регистра, и только
+     * близкие к ним; точное сравнение с префиксом выполняет вызывающий.
+     */
+    Stream<Document> primaryRange(String prefix) {
+        byte[] primary = primaryWeights(prefix);
+        return entries.tailMap(new Key(primary, "", null)).entrySet().stream()
+                .takeWhile(entry -> entry.getKey().startsWith(primary))
+                .map(Map.Entry::getValue);
+    }
+
+    Key keyOf(Document document) {
+        return keysById.get(document.getId());
+    }
+
+    private byte[] sortKey(String name) {
+        synchronized (collator) {
+            return collator.getCollationKey(name).toByteArray();
+        }
+    }
+
+    /**
+     * Первичные веса строки — начало её ключа сортировки до первого нулевого символа-разделителя
+     * уровней сравнения
+     */
+    private byte[] primaryWeights(String prefix) {
+        byte[] key;
+        synchronized (primaryCollator) {
+            key = primaryCollator.getCollationKey(prefix).toByteArray();
+        }
+        int end = 0;
+        while (end + 1 < key.length && (key[end] != 0 || key[end + 1] != 0)) {
+            end += 2;
+        }
+        return Arrays.copyOf(key, end);
+    }
+
+    private static Collator primaryCollator() {
+        Collator primary = Collator.getInstance(LOCALE);
+        primary.setStrength(Collator.PRIMARY);
+        return primary;
+    }
+
+    /**
+     * Ключ индекса: байтовый ключ сортировки имени и id для различения одинаковых имён
+     */
+    static final class Key implements Comparable<Key> {
+        private final byte[] sortKey;
+        private final String id;
+        private final String name;
+
+        private Key(byte[] sortKey, String id, String name) {
+            this.sortKey = sortKey;
+            this.id = id;
+            this.name = name;
+        }
+
+        static Key fromCursor(String cursor) {
+            String[] parts = PageCursor.decode(cursor);
+            try {
+                return new Key(Base64.getUrlDecoder().decode(parts[0]), parts[1], null);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Некорректный курсор страницы", e);
+            }
+        }
+
+        boolean startsWith(byte[] prefix) {
+            return Arrays.equals(sortKey, 0, Math.min(prefix.length, sortKey.length), prefix, 0, prefix.length);
+        }
+
+        String toCursor() {
+            return PageCursor.encode(Base64.getUrlEncoder().withoutPadding().encodeToString(sortKey), id);
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int bySortKey = Arrays.compareUnsigned(sortKey, other.sortKey);
+            return bySortKey != 0 ? bySortKey : id.compareTo(other.id);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package ru.itpark.sb.repository;
+
+/**
+ * Поведение записи, когда очередь отложенной записи заполнена
+ */
+public enum OverflowPolicy {
+    /**
+     * Ждать, пока фоновый писатель освободит место
+     */
+    BLOCK,
+    /**
+     * Сразу отклонить изменение с {@link java.util.concurrent.RejectedExecutionException}
+     */
+    REJECT
+}
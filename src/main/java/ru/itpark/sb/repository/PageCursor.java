@@ -0,0 +1,42 @@
+package ru.itpark.sb.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Кодирование курсора страницы: значение ключа сортировки и id последнего документа страницы
+ */
+final class PageCursor {
+    private static final char SEPARATOR = '\u0000';
+
+    private PageCursor() {
+    }
+
+    static String encode(String sortValue, String id) {
+        byte[] raw = (sortValue + SEPARATOR + id).getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+    }
+
+    /**
+     * Разобрать курсор на значение ключа сортировки и id
+     */
+    static String[] decode(String cursor) {
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Некорректный курсор страницы", e);
+        }
+        int separator = raw.lastIndexOf(SEPARATOR);
+        if (separator < 0) {
+            throw new IllegalArgumentException("Некорректный курсор страницы");
+        }
+        return new String[]{raw.substring(0, separator), raw.substring(separator + 1)};
+    }
+
+    static void checkLimit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Размер страницы должен быть положительным");
+        }
+    }
+}
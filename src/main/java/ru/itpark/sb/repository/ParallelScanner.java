@@ -0,0 +1,97 @@
+package ru.itpark.sb.repository;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Выполнение запросов-переборов по коллекции документов.
+ * Коллекции меньше порога перебираются последовательно; большие — параллельным потоком
+ * в собственном ForkJoinPool, чтобы сканирование не занимало общий пул JVM.
+ * Пул создаётся при первом параллельном переборе и останавливается в {@link #close()}.
+ */
+@Slf4j
+class ParallelScanner implements AutoCloseable {
+    private final int threshold;
+    private final int parallelism;
+    private volatile ForkJoinPool pool;
+    private boolean closed;
+
+    /**
+     * @param threshold   минимальный размер коллекции для параллельного перебора; 0 — только последовательно
+     * @param parallelism число потоков пула сканирования
+     */
+    ParallelScanner(int threshold, int parallelism) {
+        if (threshold < 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Некорректные параметры параллельного сканирования");
+        }
+        this.threshold = threshold;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Будет ли перебор коллекции такого размера параллельным
+     */
+    boolean isParallel(int size) {
+        return threshold > 0 && size >= threshold && parallelism > 1;
+    }
+
+    /**
+     * Выполнить запрос над потоком документов коллекции
+     */
+    <T, R> R scan(Collection<T> source, Function<Stream<T>, R> query) {
+        ForkJoinPool current = isParallel(source.size()) ? pool() : null;
+        if (current == null) {
+            return query.apply(source.stream());
+        }
+        try {
+            // Параллельный поток, запущенный из задачи пула, выполняется в этом же пуле
+            return current.submit(() -> query.apply(source.parallelStream())).join();
+        } catch (RejectedExecutionException e) {
+            // Пул остановлен между получением и отправкой задачи
+            return query.apply(source.stream());
+        }
+    }
+
+    /**
+     * Остановить пул сканирования; начатые переборы доработают, последующие выполняются последовательно
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        ForkJoinPool current = pool;
+        pool = null;
+        if (current != null) {
+            current.shutdown();
+        }
+    }
+
+    /**
+     * Пул сканирования; null, если сканер закрыт
+     */
+    private ForkJoinPool pool() {
+        ForkJoinPool current = pool;
+        if (current == null) {
+            synchronized (this) {
+                current = pool;
+                if (current == null && !closed) {
+                    current = new ForkJoinPool(parallelism, ParallelScanner::newWorker, null, false);
+                    pool = current;
+                    log.debug("Создан пул параллельного сканирования ({} потоков)", parallelism);
+                }
+            }
+        }
+        return current;
+    }
+
+    private static ForkJoinWorkerThread newWorker(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("edo-scan-" + thread.getPoolIndex());
+        return thread;
+    }
+}
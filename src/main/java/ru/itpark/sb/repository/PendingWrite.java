@@ -0,0 +1,39 @@
+package ru.itpark.sb.repository;
+
+/**
+ * Изменение документа, ожидающее отложенной записи на диск
+ *
+ * @param id         id документа
+ * @param metadata   метаданные сохранённого документа; null для удаления
+ * @param content    зашифрованное содержимое; null, если содержимое на диске уже актуально
+ * @param sequence   номер самого раннего изменения, вошедшего в запись
+ * @param enqueuedAt момент самого раннего изменения (System.nanoTime), для оценки отставания
+ */
+record PendingWrite(String id, DocumentMetadata metadata, byte[] content, long sequence, long enqueuedAt) {
+
+    static PendingWrite put(DocumentMetadata metadata, byte[] content) {
+        return new PendingWrite(metadata.getId(), metadata, content, 0, 0);
+    }
+
+    static PendingWrite delete(String id) {
+        return new PendingWrite(id, null, null, 0, 0);
+    }
+
+    boolean isDelete() {
+        return metadata == null;
+    }
+
+    PendingWrite at(long sequence, long enqueuedAt) {
+        return new PendingWrite(id, metadata, content, sequence, enqueuedAt);
+    }
+
+    /**
+     * Слить с более новым изменением того же документа: остаётся новое изменение,
+     * но номер и время — от самого раннего. Если новое изменение не меняло содержимое,
+     * записывается содержимое из более раннего.
+     */
+    PendingWrite coalesce(PendingWrite newer) {
+        byte[] mergedContent = newer.content == null && !newer.isDelete() && !isDelete() ? content : newer.content;
+        return new PendingWrite(id, newer.metadata, mergedContent, sequence, enqueuedAt);
+    }
+}
@@ -0,0 +1,190 @@
+package ru.itpark.sb.repository;
+
+import ru.itpark.sb.domain.Document;
+import ru.itpark.sb.repository.DocumentQuery.SortKey;
+import ru.itpark.sb.repository.QueryPlan.AccessPath;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Планировщик и исполнитель составных запросов.
+ * <p>
+ * Для каждого индекса, применимого к запросу, оценивается число документов, которые придётся
+ * просмотреть: для индекса имён — размер самого короткого списка триграммы, для индексов дат —
+ * число документов в диапазоне (подсчёт обрывается, как только превышена лучшая оценка).
+ * Выбирается самый селективный индекс; если ни один не сужает выборку, но порядок сортировки
+ * совпадает с индексом дат и задано ограничение, обход идёт по индексу с остановкой после
+ * нужного числа совпадений. Если сортировка всё же нужна, ограничение применяется через
+ * ограниченную кучу {@link TopK} вместо полной сортировки. Полный перебор через
+ * {@link ParallelScanner} (параллельный для больших репозиториев) — последний вариант.
+ * Вызывается под блокировкой чтения репозитория.
+ */
+class QueryEngine {
+    private static final Comparator<Document> NEWEST_CREATED = Comparator.comparing(Document::getCreatedAt)
+            .thenComparing(Document::getId)
+            .reversed();
+    private static final Comparator<Document> NEWEST_UPDATED = Comparator.comparing(Document::getUpdatedAt)
+            .thenComparing(Document::getId)
+            .reversed();
+
+    private final Map<String, Document> documents;
+    private final NameIndex nameIndex;
+    private final TimestampIndex createdIndex;
+    private final TimestampIndex updatedIndex;
+    private final Comparator<Document> nameOrder;
+    private final ParallelScanner scanner;
+
+    QueryEngine(Map<String, Document> documents, NameIndex nameIndex, TimestampIndex createdIndex,
+                TimestampIndex updatedIndex, Comparator<Document> nameOrder, ParallelScanner scanner) {
+        this.documents = documents;
+        this.nameIndex = nameIndex;
+        this.createdIndex = createdIndex;
+        this.updatedIndex = updatedIndex;
+        this.nameOrder = nameOrder;
+        this.scanner = scanner;
+    }
+
+    /**
+     * Построить план запроса
+     */
+    QueryPlan plan(DocumentQuery query) {
+        int total = documents.size();
+        AccessPath path = scanner.isParallel(total) ? AccessPath.PARALLEL_SCAN : AccessPath.FULL_SCAN;
+        long cost = total;
+
+        if (query.hasName()) {
+            int estimate = nameIndex.estimate(NameIndex.normalize(query.getNameContains()));
+            if (estimate >= 0 && estimate < cost) {
+                path = AccessPath.NAME_INDEX;
+                cost = estimate;
+            }
+        }
+        if (query.hasCreatedRange()) {
+            long estimate = createdIndex.countUpTo(query.getCreatedAfter(), query.getCreatedBefore(), cost + 1);
+            if (estimate < cost || (estimate == cost && query.getSortBy() == SortKey.CREATED_AT)) {
+                path = AccessPath.CREATED_INDEX;
+                cost = estimate;
+            }
+        }
+        if (query.hasUpdatedRange()) {
+            long estimate = updatedIndex.countUpTo(query.getUpdatedAfter(), query.getUpdatedBefore(), cost + 1);
+            if (estimate < cost || (estimate == cost && query.getSortBy() == SortKey.UPDATED_AT)) {
+                path = AccessPath.UPDATED_INDEX;
+                cost = estimate;
+            }
+        }
+        boolean scan = path == AccessPath.FULL_SCAN || path == AccessPath.PARALLEL_SCAN;
+        if (scan && query.getLimit() > 0) {
+            if (query.getSortBy() == SortKey.CREATED_AT) {
+                path = AccessPath.CREATED_INDEX;
+            } else if (query.getSortBy() == SortKey.UPDATED_AT) {
+                path = AccessPath.UPDATED_INDEX;
+            }
+        }
+
+        boolean sortRequired = !indexOrderMatches(path, query.getSortBy());
+        return new QueryPlan(
+                path,
+                cost,
+                residualFilters(query, path),
+                sortRequired,
+                !sortRequired && query.getLimit() > 0
+        );
+    }
+
+    /**
+     * Выполнить запрос по построенному плану
+     */
+    List<Document> execute(DocumentQuery query, QueryPlan plan) {
+        if (plan.getAccessPath() == AccessPath.FULL_SCAN || plan.getAccessPath() == AccessPath.PARALLEL_SCAN) {
+            return scanner.scan(documents.values(), source -> finish(source, query, plan));
+        }
+        Stream<Document> source = switch (plan.getAccessPath()) {
+            case NAME_INDEX -> nameIndex.candidates(NameIndex.normalize(query.getNameContains()))
+                    .orElseThrow()
+                    .stream()
+                    .map(documents::get)
+                    .filter(Objects::nonNull);
+            case CREATED_INDEX -> createdIndex.descending(query.getCreatedAfter(), query.getCreatedBefore()).stream();
+            case UPDATED_INDEX -> updatedIndex.descending(query.getUpdatedAfter(), query.getUpdatedBefore()).stream();
+            default -> throw new IllegalStateException("Неизвестный способ доступа: " + plan.getAccessPath());
+        };
+        return finish(source, query, plan);
+    }
+
+    /**
+     * Остаточные фильтры, сортировка и ограничение поверх выбранного способа доступа
+     */
+    private List<Document> finish(Stream<Document> source, DocumentQuery query, QueryPlan plan) {
+        Stream<Document> result = source.filter(predicate(query));
+        if (plan.isSortRequired() && query.getLimit() > 0) {
+            return result.collect(TopK.collector(query.getLimit(), comparator(query.getSortBy())));
+        }
+        if (plan.isSortRequired()) {
+            result = result.sorted(comparator(query.getSortBy()));
+        }
+        if (query.getLimit() > 0) {
+            result = result.limit(query.getLimit());
+        }
+        return result.collect(Collectors.toList());
+    }
+
+    private Predicate<Document> predicate(DocumentQuery query) {
+        Predicate<Document> predicate = document -> true;
+        if (query.hasName()) {
+            String name = NameIndex.normalize(query.getNameContains());
+            predicate = predicate.and(document -> nameIndex.normalizedName(document.getId()).contains(name));
+        }
+        if (query.hasCreatedRange()) {
+            predicate = predicate.and(document -> within(document.getCreatedAt(),
+                    query.getCreatedAfter(), query.getCreatedBefore()));
+        }
+        if (query.hasUpdatedRange()) {
+            predicate = predicate.and(document -> within(document.getUpdatedAt(),
+                    query.getUpdatedAfter(), query.getUpdatedBefore()));
+        }
+        return predicate;
+    }
+
+    private static boolean within(LocalDateTime value, LocalDateTime after, LocalDateTime before) {
+        return (after == null || value.isAfter(after)) && (before == null || value.isBefore(before));
+    }
+
+    private Comparator<Document> comparator(SortKey sortKey) {
+        return switch (sortKey) {
+            case CREATED_AT -> NEWEST_CREATED;
+            case UPDATED_AT -> NEWEST_UPDATED;
+            case NAME -> nameOrder;
+        };
+    }
+
+    private static boolean indexOrderMatches(AccessPath path, SortKey sortKey) {
+        return (path == AccessPath.CREATED_INDEX && sortKey == SortKey.CREATED_AT)
+                || (path == AccessPath.UPDATED_INDEX && sortKey == SortKey.UPDATED_AT);
+    }
+
+    /**
+     * Условия, которые не обеспечиваются выбранным способом доступа
+     */
+    private static List<String> residualFilters(DocumentQuery query, AccessPath path) {
+        List<String> filters = new ArrayList<>();
+        if (query.hasName() && path != AccessPath.NAME_INDEX) {
+            filters.add("имя содержит '" + query.getNameContains() + "'");
+        }
+        if (query.hasCreatedRange() && path != AccessPath.CREATED_INDEX) {
+            filters.add("создан в (" + query.getCreatedAfter() + ", " + query.getCreatedBefore() + ")");
+        }
+        if (query.hasUpdatedRange() && path != AccessPath.UPDATED_INDEX) {
+            filters.add("обновлён в (" + query.getUpdatedAfter() + ", " + query.getUpdatedBefore() + ")");
+        }
+        return filters;
+    }
+}
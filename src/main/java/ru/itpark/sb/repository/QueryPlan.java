@@ -0,0 +1,41 @@
+package ru.itpark.sb.repository;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * План выполнения {@link DocumentQuery}: способ доступа к документам, оценка числа
+ * просматриваемых документов, остаточные фильтры, необходимость сортировки и
+ * применение ограничения прямо при обходе индекса.
+ */
+@Value
+public class QueryPlan {
+    AccessPath accessPath;
+    long estimatedRows;
+    List<String> residualFilters;
+    boolean sortRequired;
+    boolean limitPushedDown;
+
+    /**
+     * Способ доступа к документам
+     */
+    public enum AccessPath {
+        NAME_INDEX,
+        CREATED_INDEX,
+        UPDATED_INDEX,
+        FULL_SCAN,
+        PARALLEL_SCAN
+    }
+
+    /**
+     * Описание плана в одну строку
+     */
+    public String explain() {
+        return "доступ: " + accessPath
+                + ", оценка строк: " + estimatedRows
+                + ", фильтры: " + (residualFilters.isEmpty() ? "нет" : String.join(" И ", residualFilters))
+                + ", сортировка: " + (sortRequired ? "да" : "порядок индекса")
+                + (limitPushedDown ? ", ограничение при обходе индекса" : "");
+    }
+}
@@ -0,0 +1,96 @@
+package ru.itpark.sb.repository;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Настройки репозитория документов
+ */
+@Getter
+@Builder
+public class RepositoryOptions {
+    /**
+     * Количество записей журнала метаданных, после которого журнал сворачивается в снимок metadata.json
+     */
+    @Builder.Default
+    private final int checkpointInterval = 1000;
+
+    /**
+     * Загружать при старте только метаданные; содержимое читается с диска по требованию
+     */
+    @Builder.Default
+    private final boolean lazyContent = false;
+
+    /**
+     * Объём кэша зашифрованного содержимого в байтах; 0 — кэш отключён и содержимое хранится в документах
+     */
+    @Builder.Default
+    private final long contentCacheBytes = 0;
+
+    /**
+     * Максимальное число одновременных чтений при загрузке документов на старте;
+     * 1 — последовательная загрузка, больше 1 — параллельный прогрев на виртуальных потоках
+     */
+    @Builder.Default
+    private final int warmupConcurrency = 1;
+
+    /**
+     * Минимальное число просматриваемых документов, начиная с которого перебор без индекса
+     * выполняется параллельно в отдельном пуле; 0 — перебор всегда последовательный
+     */
+    @Builder.Default
+    private final int parallelScanThreshold = 0;
+
+    /**
+     * Число потоков пула параллельного перебора
+     */
+    @Builder.Default
+    private final int parallelScanParallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Гарантия сохранности изменения к моменту возврата из save, saveAll и deleteById
+     */
+    @Builder.Default
+    private final DurabilityMode durability = DurabilityMode.NONE;
+
+    /**
+     * Сколько ждать других писателей после первой записи группы фиксации журнала;
+     * 0 — группа из записей, накопившихся за время записи предыдущей группы
+     */
+    @Builder.Default
+    private final Duration groupCommitWindow = Duration.ZERO;
+
+    /**
+     * Максимальное число изменений в одной группе фиксации журнала
+     */
+    @Builder.Default
+    private final int groupCommitMaxBatch = 1000;
+
+    /**
+     * Отложенная запись: save и deleteById меняют документы в памяти и ставят запись на диск
+     * в очередь фонового писателя, не дожидаясь её
+     */
+    @Builder.Default
+    private final boolean writeBehind = false;
+
+    /**
+     * Ёмкость очереди отложенной записи в документах
+     */
+    @Builder.Default
+    private final int writeBehindCapacity = 10_000;
+
+    /**
+     * Поведение записи при заполненной очереди отложенной записи
+     */
+    @Builder.Default
+    private final OverflowPolicy writeBehindOverflow = OverflowPolicy.BLOCK;
+
+    /**
+     * Настройки по умолчанию
+     */
+    public static RepositoryOptions defaults() {
+        return builder().build();
+    }
+}
@@ -0,0 +1,159 @@
+package ru.itpark.sb.repository;
+
+import lombok.Value;
+import ru.itpark.sb.domain.Document;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счётчики репозитория, обновляемые при каждом изменении: число документов, суммарный
+ * объём зашифрованного содержимого, гистограмма размеров, число созданий, изменений и
+ * удалений по дням. Снимок строится без перебора документов.
+ * <p>
+ * Созданные документы учитываются по дате создания (при загрузке с диска — по сохранённой дате),
+ * изменения и удаления — по дате события с момента запуска.
+ */
+public class RepositoryStatistics {
+    private static final long[] SIZE_BOUNDS = {1L << 10, 16L << 10, 256L << 10, 4L << 20};
+    private static final String[] SIZE_LABELS = {"< 1 КБ", "1–16 КБ", "16–256 КБ", "256 КБ – 4 МБ", ">= 4 МБ"};
+
+    private final Map<String, Long> lengths = new ConcurrentHashMap<>();
+    private final LongAdder documentCount = new LongAdder();
+    private final LongAdder totalBytes = new LongAdder();
+    private final LongAdder[] sizeHistogram = new LongAdder[SIZE_LABELS.length];
+    private final Map<LocalDate, LongAdder> createdPerDay = new ConcurrentHashMap<>();
+    private final Map<LocalDate, LongAdder> updatedPerDay = new ConcurrentHashMap<>();
+    private final Map<LocalDate, LongAdder> deletedPerDay = new ConcurrentHashMap<>();
+    private final LongAdder deletedTotal = new LongAdder();
+
+    RepositoryStatistics() {
+        for (int i = 0; i < sizeHistogram.length; i++) {
+            sizeHistogram[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Учесть документ в числе и объёме документов
+     *
+     * @return true, если документ новый
+     */
+    boolean onPut(Document document) {
+        long length = document.getContentLength();
+        Long previous = lengths.put(document.getId(), length);
+        if (previous == null) {
+            documentCount.increment();
+        } else {
+            untrackSize(previous);
+        }
+        trackSize(length);
+        return previous == null;
+    }
+
+    /**
+     * Исключить документ из числа и объёма документов
+     */
+    void onRemove(String id) {
+        Long previous = lengths.remove(id);
+        if (previous != null) {
+            documentCount.decrement();
+            untrackSize(previous);
+        }
+    }
+
+    /**
+     * Учесть событие создания или изменения документа
+     */
+    void recordPut(Document document, boolean created) {
+        if (created) {
+            increment(createdPerDay, document.getCreatedAt());
+        } else {
+            increment(updatedPerDay, document.getUpdatedAt());
+        }
+    }
+
+    /**
+     * Учесть событие удаления документа
+     */
+    void recordDelete() {
+        deletedTotal.increment();
+        increment(deletedPerDay, LocalDateTime.now());
+    }
+
+    /**
+     * Снимок счётчиков
+     */
+    public Snapshot snapshot() {
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < SIZE_LABELS.length; i++) {
+            histogram.put(SIZE_LABELS[i], sizeHistogram[i].sum());
+        }
+        return new Snapshot(
+                documentCount.sum(),
+                totalBytes.sum(),
+                histogram,
+                sum(createdPerDay),
+                sum(updatedPerDay),
+                sum(deletedPerDay),
+                deletedTotal.sum()
+        );
+    }
+
+    long documentCount() {
+        return documentCount.sum();
+    }
+
+    private void trackSize(long length) {
+        totalBytes.add(length);
+        sizeHistogram[bucket(length)].increment();
+    }
+
+    private void untrackSize(long length) {
+        totalBytes.add(-length);
+        sizeHistogram[bucket(length)].decrement();
+    }
+
+    private static int bucket(long length) {
+        for (int i = 0; i < SIZE_BOUNDS.length; i++) {
+            if (length < SIZE_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return SIZE_BOUNDS.length;
+    }
+
+    private static void increment(Map<LocalDate, LongAdder> perDay, LocalDateTime at) {
+        if (at != null) {
+            perDay.computeIfAbsent(at.toLocalDate(), day -> new LongAdder()).increment();
+        }
+    }
+
+    private static SortedMap<LocalDate, Long> sum(Map<LocalDate, LongAdder> perDay) {
+        SortedMap<LocalDate, Long> result = new TreeMap<>();
+        perDay.forEach((day, counter) -> result.put(day, counter.sum()));
+        return result;
+    }
+
+    /**
+     * Снимок статистики репозитория
+     */
+    @Value
+    public static class Snapshot {
+        long documentCount;
+        long totalContentBytes;
+        /**
+         * Число документов по диапазонам размера зашифрованного содержимого
+         */
+        Map<String, Long> sizeHistogram;
+        SortedMap<LocalDate, Long> createdPerDay;
+        SortedMap<LocalDate, Long> updatedPerDay;
+        SortedMap<LocalDate, Long> deletedPerDay;
+        long deletedTotal;
+    }
+}
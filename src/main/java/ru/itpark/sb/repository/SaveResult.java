@@ -0,0 +1,34 @@
+package ru.itpark.sb.repository;
+
+import lombok.Value;
+
+/**
+ * Результат условного сохранения {@link DocumentRepository#compareAndSave}: документ сохранён
+ * или версия в репозитории уже другая (конфликт). При конфликте {@link #getVersion()} — текущая
+ * версия в репозитории, по которой клиент может перечитать документ и повторить изменение.
+ */
+@Value
+public class SaveResult {
+    /**
+     * Версия при конфликте с удалённым или ещё не созданным документом
+     */
+    public static final long ABSENT = -1;
+
+    boolean saved;
+    /**
+     * Новая версия документа после сохранения или текущая версия в репозитории при конфликте
+     */
+    long version;
+
+    public static SaveResult saved(long version) {
+        return new SaveResult(true, version);
+    }
+
+    public static SaveResult conflict(long currentVersion) {
+        return new SaveResult(false, currentVersion);
+    }
+
+    public boolean isConflict() {
+        return !saved;
+    }
+}
@@ -0,0 +1,76 @@
+package ru.itpark.sb.repository;
+
+import java.util.Collection;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Таблица блокировок по id документа, разбитая на полосы (stripes).
+ * <p>
+ * Каждый id попадает в одну из фиксированного числа полос, поэтому изменения разных документов
+ * чаще всего идут параллельно, а изменения одного документа выполняются строго по очереди.
+ * Используются {@link ReentrantLock}, а не synchronized, чтобы ожидание не «прикалывало»
+ * виртуальный поток к несущему.
+ */
+class StripedLockTable {
+    private final Lock[] stripes;
+    private final int mask;
+
+    /**
+     * @param stripes число полос; округляется вверх до степени двойки
+     */
+    StripedLockTable(int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("Число полос блокировок должно быть положительным");
+        }
+        int size = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new Lock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Выполнить действие под блокировкой документа
+     */
+    <T> T write(String id, Supplier<T> action) {
+        Lock lock = stripe(id);
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Выполнить действие под блокировками нескольких документов. Полосы захватываются
+     * в порядке номеров, поэтому одновременные вызовы с пересекающимися наборами не взаимоблокируются.
+     */
+    <T> T writeAll(Collection<String> ids, Supplier<T> action) {
+        int[] indexes = ids.stream().mapToInt(this::indexOf).distinct().sorted().toArray();
+        int locked = 0;
+        try {
+            for (int index : indexes) {
+                stripes[index].lock();
+                locked++;
+            }
+            return action.get();
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                stripes[indexes[i]].unlock();
+            }
+        }
+    }
+
+    Lock stripe(String id) {
+        return stripes[indexOf(id)];
+    }
+
+    private int indexOf(String id) {
+        int hash = id.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,191 @@
+package ru.itpark.sb.repository;
+
+import ru.itpark.sb.domain.Document;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+/**
+ * Упорядоченный индекс документов по отметке времени (дата создания или обновления).
+ * Ключ — пара (время, id), поэтому документы с одинаковым временем не перезаписывают друг друга.
+ * <p>
+ * Индекс запоминает ключ, под которым документ был добавлен: отметка времени в самом документе
+ * может измениться до сохранения (например, {@link Document#setEncryptedContent} обновляет updatedAt),
+ * и при повторном добавлении старая запись удаляется по запомненному ключу.
+ */
+class TimestampIndex {
+    private final Function<Document, LocalDateTime> timestamp;
+    private final ConcurrentSkipListMap<Key, Document> entries = new ConcurrentSkipListMap<>();
+    private final Map<String, Key> keysById = new ConcurrentHashMap<>();
+
+    TimestampIndex(Function<Document, LocalDateTime> timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Добавить документ или переиндексировать его по текущей отметке времени
+     */
+    void put(Document document) {
+        Key key = Key.of(timestamp.apply(document), document.getId());
+        Key previous = keysById.put(document.getId(), key);
+        if (previous != null && !previous.equals(key)) {
+            entries.remove(previous);
+        }
+        entries.put(key, document);
+    }
+
+    /**
+     * Удалить документ из индекса
+     */
+    void remove(String id) {
+        Key previous = keysById.remove(id);
+        if (previous != null) {
+            entries.remove(previous);
+        }
+    }
+
+    /**
+     * Все документы от новых к старым
+     */
+    List<Document> newestFirst() {
+        return new ArrayList<>(entries.descendingMap().values());
+    }
+
+    /**
+     * k самых новых документов: обход индекса останавливается после k записей
+     */
+    List<Document> newest(int k) {
+        TopK.checkK(k);
+        List<Document> result = new ArrayList<>(k);
+        Iterator<Document> iterator = entries.descendingMap().values().iterator();
+        while (result.size() < k && iterator.hasNext()) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+
+    /**
+     * Документы с отметкой времени строго между from и to, от новых к старым
+     */
+    List<Document> between(LocalDateTime from, LocalDateTime to) {
+        return new ArrayList<>(view(Key.after(from), Key.before(to)).descendingMap().values());
+    }
+
+    /**
+     * Страница документов от новых к старым, начиная после курсора.
+     * Границы from и to (исключительные) необязательны.
+     */
+    DocumentPage page(LocalDateTime from, LocalDateTime to, String cursor, int limit) {
+        PageCursor.checkLimit(limit);
+        Key upper = to != null ? Key.before(to) : null;
+        if (cursor != null) {
+            Key after = Key.fromCursor(cursor);
+            if (upper == null || after.compareTo(upper) < 0) {
+                upper = after;
+            }
+        }
+        Key lower = from != null ? Key.after(from) : null;
+
+        List<Document> items = new ArrayList<>(limit);
+        Key last = null;
+        boolean more = false;
+        for (Map.Entry<Key, Document> entry : view(lower, upper).descendingMap().entrySet()) {
+            if (items.size() == limit) {
+                more = true;
+                break;
+            }
+            items.add(entry.getValue());
+            last = entry.getKey();
+        }
+        return new DocumentPage(items, more ? last.toCursor() : null);
+    }
+
+    /**
+     * Документы между необязательными исключительными границами, от новых к старым.
+     * Возвращается представление индекса без копирования: обход можно прервать в любой момент.
+     */
+    Collection<Document> descending(LocalDateTime after, LocalDateTime before) {
+        return view(after != null ? Key.after(after) : null, before != null ? Key.before(before) : null)
+                .descendingMap()
+                .values();
+    }
+
+    /**
+     * Число документов между границами, но не больше cap: подсчёт прекращается на cap
+     */
+    long countUpTo(LocalDateTime after, LocalDateTime before, long cap) {
+        long count = 0;
+        Iterator<Key> keys = view(after != null ? Key.after(after) : null, before != null ? Key.before(before) : null)
+                .keySet()
+                .iterator();
+        while (count < cap && keys.hasNext()) {
+            keys.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Часть индекса между границами (исключительно); null — граница не задана
+     */
+    private NavigableMap<Key, Document> view(Key lower, Key upper) {
+        if (lower != null && upper != null) {
+            return lower.compareTo(upper) < 0 ? entries.subMap(lower, false, upper, false) : Collections.emptyNavigableMap();
+        }
+        if (lower != null) {
+            return entries.tailMap(lower, false);
+        }
+        return upper != null ? entries.headMap(upper, false) : entries;
+    }
+
+    /**
+     * Ключ индекса. Граничные ключи (bound = ±1) располагаются до или после всех документов
+     * с той же отметкой времени и используются только для выборки диапазонов.
+     */
+    record Key(LocalDateTime timestamp, int bound, String id) implements Comparable<Key> {
+        private static final Comparator<Key> ORDER = Comparator.comparing(Key::timestamp)
+                .thenComparingInt(Key::bound)
+                .thenComparing(Key::id);
+
+        static Key of(LocalDateTime timestamp, String id) {
+            return new Key(timestamp, 0, id);
+        }
+
+        static Key before(LocalDateTime timestamp) {
+            return new Key(timestamp, -1, "");
+        }
+
+        static Key after(LocalDateTime timestamp) {
+            return new Key(timestamp, 1, "");
+        }
+
+        static Key fromCursor(String cursor) {
+            String[] parts = PageCursor.decode(cursor);
+            try {
+                return of(LocalDateTime.parse(parts[0]), parts[1]);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Некорректный курсор страницы", e);
+            }
+        }
+
+        String toCursor() {
+            return PageCursor.encode(timestamp.toString(), id);
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            return ORDER.compare(this, other);
+        }
+    }
+}
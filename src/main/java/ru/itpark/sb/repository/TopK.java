@@ -0,0 +1,53 @@
+package ru.itpark.sb.repository;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collector;
+
+/**
+ * Выбор первых k элементов в заданном порядке без полной сортировки: ограниченная куча
+ * хранит k лучших элементов, в её вершине — худший из них. Стоимость O(N log k).
+ */
+final class TopK {
+
+    private TopK() {
+    }
+
+    /**
+     * Коллектор первых k элементов в порядке order; поддерживает параллельные потоки
+     */
+    static <T> Collector<T, ?, List<T>> collector(int k, Comparator<? super T> order) {
+        checkK(k);
+        Comparator<? super T> worstFirst = order.reversed();
+        return Collector.<T, PriorityQueue<T>, List<T>>of(
+                () -> new PriorityQueue<>(k + 1, worstFirst),
+                (heap, item) -> offer(heap, item, k, order),
+                (left, right) -> {
+                    right.forEach(item -> offer(left, item, k, order));
+                    return left;
+                },
+                heap -> {
+                    List<T> result = new ArrayList<>(heap);
+                    result.sort(order);
+                    return result;
+                }
+        );
+    }
+
+    static void checkK(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("Количество документов должно быть положительным");
+        }
+    }
+
+    private static <T> void offer(PriorityQueue<T> heap, T item, int k, Comparator<? super T> order) {
+        if (heap.size() < k) {
+            heap.offer(item);
+        } else if (order.compare(item, heap.peek()) < 0) {
+            heap.poll();
+            heap.offer(item);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package ru.itpark.sb.repository;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Ограниченная очередь отложенной записи (write-behind).
+ * <p>
+ * Изменения документов ставятся в очередь, а фоновый виртуальный поток забирает всё накопленное
+ * и записывает одной группой. Повторные изменения одного документа, ещё не записанные на диск,
+ * сливаются в одно. Ёмкость считается в документах, ожидающих записи или записываемых сейчас;
+ * когда она исчерпана, запись ждёт или отклоняется согласно {@link OverflowPolicy}.
+ * <p>
+ * Пока изменение не записано, его содержимое отдаётся из очереди ({@link #pendingContent}).
+ * Неудачная группа возвращается в очередь и повторяется. {@link #flush()} не ждёт бесконечно
+ * при постоянных сбоях: если попытка записи после его вызова не удалась, он выбрасывает последнюю
+ * ошибку. При закрытии очередь дописывается до конца; если хранилище так и не приняло запись
+ * за {@link #CLOSE_ATTEMPTS} попыток, оставшиеся изменения отбрасываются и {@link #close()}
+ * выбрасывает ошибку.
+ */
+@Slf4j
+public class WriteBehindQueue implements AutoCloseable {
+    private static final long RETRY_DELAY_MILLIS = 200;
+    /**
+     * Сколько неудачных попыток записи допускается после закрытия очереди
+     */
+    static final int CLOSE_ATTEMPTS = 3;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition written = lock.newCondition();
+    private final Consumer<List<PendingWrite>> sink;
+    private final int capacity;
+    private final OverflowPolicy overflow;
+    private final Thread thread;
+
+    private LinkedHashMap<String, PendingWrite> pending = new LinkedHashMap<>();
+    private Map<String, PendingWrite> inFlight = Map.of();
+    private long nextSequence;
+    private long writtenCount;
+    private long coalescedCount;
+    private long failedBatches;
+    private long attempts;
+    private RuntimeException lastFailure;
+    private int failuresAfterClose;
+    private int dropped;
+    private boolean closed;
+
+    /**
+     * @param sink запись группы изменений на диск; исключение означает, что группу нужно повторить
+     */
+    WriteBehindQueue(Consumer<List<PendingWrite>> sink, int capacity, OverflowPolicy overflow) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Ёмкость очереди отложенной записи должна быть положительной");
+        }
+        this.sink = sink;
+        this.capacity = capacity;
+        this.overflow = overflow;
+        this.thread = Thread.ofVirtual().name("edo-write-behind").start(this::run);
+    }
+
+    /**
+     * Поставить изменение в очередь, слив его с ещё не записанным изменением того же документа
+     *
+     * @throws RejectedExecutionException очередь заполнена и политика {@link OverflowPolicy#REJECT}
+     * @throws IllegalStateException      очередь закрыта
+     */
+    void enqueue(PendingWrite write) {
+        lock.lock();
+        try {
+            checkOpen();
+            PendingWrite previous = pending.get(write.id());
+            if (previous != null) {
+                pending.put(write.id(), previous.coalesce(write));
+                coalescedCount++;
+                return;
+            }
+            while (depth() >= capacity) {
+                if (overflow == OverflowPolicy.REJECT) {
+                    throw new RejectedExecutionException("Очередь отложенной записи заполнена: " + capacity);
+                }
+                notFull.awaitUninterruptibly();
+                checkOpen();
+            }
+            pending.put(write.id(), write.at(nextSequence++, System.nanoTime()));
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Содержимое документа из ещё не записанного изменения
+     */
+    Optional<byte[]> pendingContent(String id) {
+        lock.lock();
+        try {
+            PendingWrite write = pending.get(id);
+            if (write != null && write.content() != null) {
+                return Optional.of(write.content());
+            }
+            write = inFlight.get(id);
+            return write != null ? Optional.ofNullable(write.content()) : Optional.empty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Дождаться записи всех изменений, поставленных в очередь до вызова
+     *
+     * @throws IllegalStateException попытка записи, завершившаяся после вызова, не удалась
+     */
+    void flush() {
+        lock.lock();
+        try {
+            long target = nextSequence;
+            long startedAt = attempts;
+            while (oldestSequence() < target) {
+                if (lastFailure != null && attempts > startedAt) {
+                    throw new IllegalStateException("Отложенная запись на диск не удалась: "
+                            + lastFailure.getMessage(), lastFailure);
+                }
+                written.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Метрики очереди
+     */
+    public Stats stats() {
+        lock.lock();
+        try {
+            long oldest = Long.MAX_VALUE;
+            for (PendingWrite write : inFlight.values()) {
+                oldest = Math.min(oldest, write.enqueuedAt());
+            }
+            if (!pending.isEmpty()) {
+                oldest = Math.min(oldest, pending.values().iterator().next().enqueuedAt());
+            }
+            long lagMillis = oldest == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest);
+            return new Stats(depth(), capacity, lagMillis, writtenCount, coalescedCount, failedBatches);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Записать всё, что осталось в очереди, и остановить фоновый поток
+     *
+     * @throws IllegalStateException часть изменений так и не удалось записать и они отброшены
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            if (dropped > 0) {
+                throw new IllegalStateException("Очередь отложенной записи закрыта, не записано изменений: "
+                        + dropped, lastFailure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<PendingWrite> batch;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                inFlight = pending;
+                pending = new LinkedHashMap<>();
+                batch = new ArrayList<>(inFlight.values());
+            } finally {
+                lock.unlock();
+            }
+
+            RuntimeException failure = write(batch);
+
+            lock.lock();
+            try {
+                attempts++;
+                if (failure == null) {
+                    writtenCount += batch.size();
+                    lastFailure = null;
+                } else {
+                    failedBatches++;
+                    lastFailure = failure;
+                    requeue(batch);
+                }
+                inFlight = Map.of();
+                notFull.signalAll();
+                written.signalAll();
+                if (failure != null && closed && ++failuresAfterClose >= CLOSE_ATTEMPTS) {
+                    dropped = pending.size();
+                    log.error("Очередь отложенной записи закрыта, не записано изменений: {}", dropped);
+                    pending.clear();
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (failure != null) {
+                pause();
+            }
+        }
+    }
+
+    /**
+     * @return ошибка записи или null, если группа записана
+     */
+    private RuntimeException write(List<PendingWrite> batch) {
+        try {
+            sink.accept(batch);
+            return null;
+        } catch (RuntimeException e) {
+            log.error("Ошибка отложенной записи группы из {} изменений, группа будет повторена: {}",
+                    batch.size(), e.getMessage(), e);
+            return e;
+        }
+    }
+
+    /**
+     * Вернуть неудачную группу в начало очереди, слив с изменениями, поступившими во время записи
+     */
+    private void requeue(List<PendingWrite> batch) {
+        LinkedHashMap<String, PendingWrite> merged = new LinkedHashMap<>();
+        batch.forEach(write -> merged.put(write.id(), write));
+        pending.forEach((id, write) -> merged.merge(id, write, PendingWrite::coalesce));
+        pending = merged;
+    }
+
+    private long oldestSequence() {
+        long oldest = Long.MAX_VALUE;
+        for (PendingWrite write : inFlight.values()) {
+            oldest = Math.min(oldest, write.sequence());
+        }
+        if (!pending.isEmpty()) {
+            oldest = Math.min(oldest, pending.values().iterator().next().sequence());
+        }
+        return oldest;
+    }
+
+    private int depth() {
+        return pending.size() + inFlight.size();
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Очередь отложенной записи закрыта");
+        }
+    }
+
+    private static void pause() {
+        try {
+            Thread.sleep(RETRY_DELAY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Метрики очереди отложенной записи
+     */
+    @Value
+    public static class Stats {
+        /**
+         * Документов, ожидающих записи или записываемых сейчас
+         */
+        int queueDepth;
+        int capacity;
+        /**
+         * Возраст самого старого незаписанного изменения
+         */
+        long lagMillis;
+        long writtenCount;
+        long coalescedCount;
+        long failedBatches;
+    }
+}
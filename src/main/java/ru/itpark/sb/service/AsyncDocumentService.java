@@ -0,0 +1,201 @@
+package ru.itpark.sb.service;
+
+import ru.itpark.sb.domain.Document;
+import ru.itpark.sb.repository.DocumentPage;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Асинхронный фасад {@link DocumentService}: хеширование, шифрование и работа с диском выполняются
+ * на виртуальных потоках, а вызывающий поток сразу получает {@link CompletableFuture}.
+ * <p>
+ * Число одновременно выполняемых операций ограничено {@link AsyncServiceOptions#getMaxInFlight()}.
+ * Вызывающий поток никогда не блокируется: если свободное место есть, операция занимает его сразу.
+ * Иначе она ставится в ожидание, и ждёт уже задача на виртуальном потоке — не дольше
+ * {@link AsyncServiceOptions#getAcquireTimeout()}, после чего future завершается
+ * {@link RejectedExecutionException}. Ожидающих операций не больше
+ * {@link AsyncServiceOptions#getMaxWaiting()}: сверх этого операция отклоняется сразу, без создания
+ * задачи, — так перегрузка возвращается вызывающему, а не копится в памяти.
+ * На внешнем исполнителе с ограниченным пулом ожидающие задачи занимают его потоки.
+ */
+public class AsyncDocumentService implements AutoCloseable {
+    private final DocumentService documentService;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final Semaphore permits;
+    private final Semaphore waitingSlots;
+    private final int maxInFlight;
+    private final long acquireTimeoutNanos;
+
+    public AsyncDocumentService(DocumentService documentService) {
+        this(documentService, AsyncServiceOptions.defaults());
+    }
+
+    /**
+     * Фасад с собственным исполнителем: по виртуальному потоку на операцию
+     */
+    public AsyncDocumentService(DocumentService documentService, AsyncServiceOptions options) {
+        this(documentService, options,
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(options.getThreadNamePrefix(), 0).factory()),
+                true);
+    }
+
+    /**
+     * Фасад на внешнем исполнителе; исполнитель не закрывается в {@link #close()}
+     */
+    public AsyncDocumentService(DocumentService documentService, AsyncServiceOptions options, ExecutorService executor) {
+        this(documentService, options, executor, false);
+    }
+
+    private AsyncDocumentService(DocumentService documentService, AsyncServiceOptions options,
+                                 ExecutorService executor, boolean ownsExecutor) {
+        if (options.getMaxInFlight() <= 0) {
+            throw new IllegalArgumentException("Число одновременных операций должно быть положительным");
+        }
+        if (options.getMaxWaiting() < 0) {
+            throw new IllegalArgumentException("Число ожидающих операций не может быть отрицательным");
+        }
+        this.documentService = documentService;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.maxInFlight = options.getMaxInFlight();
+        this.permits = new Semaphore(maxInFlight);
+        this.waitingSlots = new Semaphore(options.getMaxWaiting());
+        this.acquireTimeoutNanos = options.getAcquireTimeout().toNanos();
+    }
+
+    /**
+     * Сохранить документ с паролем
+     */
+    public CompletableFuture<Document> saveDocument(String name, String content, String password) {
+        return submit(() -> documentService.saveDocument(name, content, password));
+    }
+
+    /**
+     * Получить расшифрованное содержимое документа
+     */
+    public CompletableFuture<Optional<String>> getDocumentContent(String id, String password) {
+        return submit(() -> documentService.getDocumentContent(id, password));
+    }
+
+    /**
+     * Получить документ без расшифровки (метаданные)
+     */
+    public CompletableFuture<Optional<Document>> getDocument(String id) {
+        return submit(() -> documentService.getDocument(id));
+    }
+
+    /**
+     * Обновить содержимое документа
+     */
+    public CompletableFuture<Document> updateDocument(String id, String newContent, String password) {
+        return submit(() -> documentService.updateDocument(id, newContent, password));
+    }
+
+    /**
+     * Изменить пароль документа
+     */
+    public CompletableFuture<Boolean> changePassword(String id, String oldPassword, String newPassword) {
+        return submit(() -> documentService.changePassword(id, oldPassword, newPassword));
+    }
+
+    /**
+     * Удалить документ
+     */
+    public CompletableFuture<Boolean> deleteDocument(String id) {
+        return submit(() -> documentService.deleteDocument(id));
+    }
+
+    /**
+     * Поиск документов по имени
+     */
+    public CompletableFuture<List<Document>> searchDocumentsByName(String name) {
+        return submit(() -> documentService.searchDocumentsByName(name));
+    }
+
+    /**
+     * Страница результатов поиска по имени
+     *
+     * @param cursor курсор предыдущей страницы или null для первой страницы
+     */
+    public CompletableFuture<DocumentPage> searchDocumentsByName(String name, String cursor, int limit) {
+        return submit(() -> documentService.searchDocumentsByName(name, cursor, limit));
+    }
+
+    /**
+     * Число операций, выполняемых в данный момент
+     */
+    public int inFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * Дождаться завершения начатых операций и закрыть собственный исполнитель
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.close();
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> operation) {
+        if (permits.tryAcquire()) {
+            return execute(() -> run(operation), permits::release);
+        }
+        if (!waitingSlots.tryAcquire()) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException(
+                    "Превышено число одновременных и ожидающих операций: " + maxInFlight));
+        }
+        return execute(() -> {
+            try {
+                acquirePermit();
+            } finally {
+                waitingSlots.release();
+            }
+            return run(operation);
+        }, waitingSlots::release);
+    }
+
+    /**
+     * Передать задачу исполнителю; если он её не принял, вернуть занятое для неё место
+     */
+    private <T> CompletableFuture<T> execute(Supplier<T> task, Runnable onRejected) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException e) {
+            onRejected.run();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private <T> T run(Supplier<T> operation) {
+        try {
+            return operation.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Дождаться свободного места на потоке задачи, а не на вызывающем потоке
+     */
+    private void acquirePermit() {
+        try {
+            if (!permits.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new RejectedExecutionException("Превышено число одновременных операций: " + maxInFlight);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Ожидание свободного места прервано", e);
+        }
+    }
+}
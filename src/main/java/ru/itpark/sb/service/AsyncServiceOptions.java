@@ -0,0 +1,47 @@
+package ru.itpark.sb.service;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Настройки асинхронного фасада {@link AsyncDocumentService}
+ */
+@Getter
+@Builder
+public class AsyncServiceOptions {
+    /**
+     * Максимальное число одновременно выполняемых операций
+     */
+    @Builder.Default
+    private final int maxInFlight = 256;
+
+    /**
+     * Сколько операций может ждать свободного места сверх maxInFlight; следующие отклоняются
+     * сразу на вызывающем потоке, без создания задачи. 0 — не ждать, отклонять сразу.
+     */
+    @Builder.Default
+    private final int maxWaiting = 1024;
+
+    /**
+     * Сколько задача на виртуальном потоке ждёт освобождения места, когда выполняется maxInFlight операций;
+     * по истечении её future завершается отказом. Вызывающий поток при этом не ждёт.
+     * {@link Duration#ZERO} — отклонять сразу.
+     */
+    @Builder.Default
+    private final Duration acquireTimeout = Duration.ofSeconds(30);
+
+    /**
+     * Префикс имён виртуальных потоков собственного исполнителя
+     */
+    @Builder.Default
+    private final String threadNamePrefix = "edo-async-";
+
+    /**
+     * Настройки по умолчанию
+     */
+    public static AsyncServiceOptions defaults() {
+        return builder().build();
+    }
+}
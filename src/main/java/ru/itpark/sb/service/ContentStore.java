@@ -0,0 +1,50 @@
+package ru.itpark.sb.service;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * Хранилище зашифрованного содержимого документов
+ */
+public interface ContentStore extends AutoCloseable {
+    /**
+     * Сохранить (или перезаписать) содержимое документа
+     */
+    void save(String documentId, byte[] encryptedContent);
+
+    /**
+     * Загрузить содержимое документа
+     */
+    Optional<byte[]> load(String documentId);
+
+    /**
+     * Проверить наличие содержимого документа
+     */
+    boolean exists(String documentId);
+
+    /**
+     * Размер содержимого документа в байтах без чтения самого содержимого, если документ есть в хранилище
+     */
+    default OptionalLong size(String documentId) {
+        return load(documentId).map(content -> OptionalLong.of(content.length)).orElse(OptionalLong.empty());
+    }
+
+    /**
+     * Удалить содержимое документа
+     */
+    boolean delete(String documentId);
+
+    /**
+     * Сбросить на диск (fsync) уже сохранённое содержимое документов
+     */
+    default void sync(Collection<String> documentIds) {
+    }
+
+    /**
+     * Освободить ресурсы хранилища
+     */
+    @Override
+    default void close() {
+    }
+}
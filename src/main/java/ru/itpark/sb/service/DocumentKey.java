@@ -0,0 +1,33 @@
+package ru.itpark.sb.service;
+
+import javax.crypto.SecretKey;
+import java.util.Arrays;
+
+/**
+ * Ключ документа, выведенный из пароля и соли один раз.
+ * Позволяет расшифровать текущее содержимое и зашифровать новое без повторного вывода ключа.
+ */
+public class DocumentKey {
+    private final byte[] salt;
+    private final SecretKey secretKey;
+
+    DocumentKey(byte[] salt, SecretKey secretKey) {
+        this.salt = salt.clone();
+        this.secretKey = secretKey;
+    }
+
+    byte[] salt() {
+        return salt;
+    }
+
+    SecretKey secretKey() {
+        return secretKey;
+    }
+
+    /**
+     * Выведен ли ключ для соли, с которой зашифрованы данные
+     */
+    boolean matches(byte[] encryptedData, int offset) {
+        return Arrays.equals(salt, 0, salt.length, encryptedData, offset, offset + salt.length);
+    }
+}
@@ -2,17 +2,26 @@ package ru.itpark.sb.service;
 
 import lombok.RequiredArgsConstructor;
 import ru.itpark.sb.domain.Document;
+import ru.itpark.sb.domain.DocumentDraft;
+import ru.itpark.sb.repository.DocumentPage;
 import ru.itpark.sb.repository.DocumentRepository;
+import ru.itpark.sb.repository.RepositoryStatistics;
+import ru.itpark.sb.repository.SaveResult;
 
 import java.nio.charset.StandardCharsets;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
- * Сервис для работы с документами (бизнес-логика) с использованием Stream API
+ * Сервис для работы с документами (бизнес-логика) с использованием Stream API.
+ * <p>
+ * Изменения документа (обновление, смена пароля) оптимистичные: меняется копия прочитанного
+ * документа, и она сохраняется через {@link DocumentRepository#compareAndSave}, только если версия
+ * в репозитории не изменилась; при конфликте документ перечитывается и изменение повторяется.
+ * Опубликованные документы не меняются на месте, поэтому чтение и расшифровка идут без блокировок.
  */
 @RequiredArgsConstructor
 public class DocumentService {
@@ -23,41 +32,46 @@ public class DocumentService {
      * Сохранить документ с паролем
      */
     public Document saveDocument(String name, String content, String password) {
-        String id = UUID.randomUUID().toString();
-        String passwordHash = encryptionService.hashPassword(password);
-        byte[] encryptedContent = encryptionService.encrypt(
-                content.getBytes(StandardCharsets.UTF_8),
-                password
-        );
-
-        Document document = new Document(id, name, encryptedContent, passwordHash);
+        Document document = createDocument(new DocumentDraft(name, content, password));
         repository.save(document);
         return document;
     }
 
     /**
-     * Получить документ по ID с расшифровкой используя Stream API и Optional
+     * Пакетный импорт документов: шифрование выполняется параллельно,
+     * а репозиторий сохраняет метаданные пакета одной записью
+     */
+    public List<Document> importBatch(List<DocumentDraft> drafts) {
+        List<Document> documents = drafts.parallelStream()
+                .map(this::createDocument)
+                .collect(Collectors.toList());
+        repository.saveAll(documents);
+        return documents;
+    }
+
+    /**
+     * Зашифровать содержимое черновика. Хеш пароля не вычисляется: пароль проверяется тегом GCM
+     * при расшифровке, и второй вывод из пароля был бы лишней работой.
+     */
+    private Document createDocument(DocumentDraft draft) {
+        byte[] encryptedContent = encryptionService.encrypt(
+                draft.getContent().getBytes(StandardCharsets.UTF_8),
+                draft.getPassword()
+        );
+        return new Document(UUID.randomUUID().toString(), draft.getName(), encryptedContent, null);
+    }
+
+    /**
+     * Получить документ по ID с расшифровкой.
+     * Ключ выводится из пароля один раз, пароль проверяется тегом GCM при расшифровке.
      */
     public Optional<String> getDocumentContent(String id, String password) {
         return repository.findById(id)
-                .filter(doc -> encryptionService.verifyPassword(password, doc.getPasswordHash()))
                 .map(doc -> {
-                    try {
-                        byte[] decryptedContent = encryptionService.decrypt(
-                                doc.getEncryptedContent(),
-                                password
-                        );
-                        return new String(decryptedContent, StandardCharsets.UTF_8);
-                    } catch (Exception e) {
-                        throw new RuntimeException("Ошибка при расшифровке документа: " + e.getMessage(), e);
-                    }
-                })
-                .or(() -> {
-                    // Проверка существования документа для более информативной ошибки
-                    if (repository.existsById(id)) {
-                        throw new SecurityException("Неверный пароль");
-                    }
-                    return Optional.empty();
+                    byte[] encryptedContent = doc.getEncryptedContent();
+                    DocumentKey key = encryptionService.open(encryptedContent, password);
+                    byte[] decryptedContent = encryptionService.decrypt(key, encryptedContent);
+                    return new String(decryptedContent, StandardCharsets.UTF_8);
                 });
     }
 
@@ -69,12 +83,33 @@ public class DocumentService {
     }
 
     /**
-     * Получить все документы используя Stream API
+     * Получить все документы, от новых к старым (репозиторий уже возвращает их упорядоченными)
      */
     public List<Document> getAllDocuments() {
-        return repository.findAll().stream()
-                .sorted(Comparator.comparing(Document::getCreatedAt).reversed())
-                .collect(Collectors.toList());
+        return repository.findAll();
+    }
+
+    /**
+     * Получить страницу документов, от новых к старым
+     *
+     * @param cursor курсор предыдущей страницы или null для первой страницы
+     */
+    public DocumentPage getDocumentsPage(String cursor, int limit) {
+        return repository.findAll(cursor, limit);
+    }
+
+    /**
+     * Последние созданные документы (не больше k) без сортировки всего репозитория
+     */
+    public List<Document> getLatestCreated(int k) {
+        return repository.latestCreated(k);
+    }
+
+    /**
+     * Последние изменённые документы (не больше k) без сортировки всего репозитория
+     */
+    public List<Document> getLatestUpdated(int k) {
+        return repository.latestUpdated(k);
     }
 
     /**
@@ -92,50 +127,94 @@ public class DocumentService {
     }
 
     /**
-     * Обновить документ используя Stream API и Optional
+     * Получить страницу результатов поиска по имени
+     *
+     * @param cursor курсор предыдущей страницы или null для первой страницы
+     */
+    public DocumentPage searchDocumentsByName(String name, String cursor, int limit) {
+        return repository.findByNameContaining(name, cursor, limit);
+    }
+
+    /**
+     * Автодополнение имени: первые limit документов, имя которых начинается с введённого текста
+     */
+    public List<Document> autocomplete(String prefix, int limit) {
+        return repository.findByNamePrefix(prefix, limit);
+    }
+
+    /**
+     * Обновить документ: ключ выводится один раз, проверяется тегом GCM текущего содержимого
+     * и используется для шифрования нового содержимого
      */
     public Document updateDocument(String id, String newContent, String password) {
-        return repository.findById(id)
-                .map(doc -> {
-                    if (!encryptionService.verifyPassword(password, doc.getPasswordHash())) {
-                        throw new SecurityException("Неверный пароль");
-                    }
-                    byte[] encryptedContent = encryptionService.encrypt(
-                            newContent.getBytes(StandardCharsets.UTF_8),
-                            password
-                    );
-                    doc.setEncryptedContent(encryptedContent);
-                    repository.save(doc);
-                    return doc;
-                })
-                .orElseThrow(() -> new IllegalArgumentException("Документ с ID " + id + " не найден"));
+        return modify(id, doc -> {
+            byte[] currentContent = doc.getEncryptedContent();
+            DocumentKey key = encryptionService.open(currentContent, password);
+            encryptionService.decrypt(key, currentContent);
+            byte[] encryptedContent = encryptionService.encrypt(
+                    key,
+                    newContent.getBytes(StandardCharsets.UTF_8)
+            );
+            doc.setEncryptedContent(encryptedContent);
+        }).orElseThrow(() -> new IllegalArgumentException("Документ с ID " + id + " не найден"));
     }
 
     /**
-     * Изменить пароль документа используя Stream API и Optional
+     * Изменить пароль документа: по одному выводу ключа для старого и нового пароля, без хеша пароля
      */
     public boolean changePassword(String id, String oldPassword, String newPassword) {
-        return repository.findById(id)
-                .map(doc -> {
-                    if (!encryptionService.verifyPassword(oldPassword, doc.getPasswordHash())) {
-                        throw new SecurityException("Неверный старый пароль");
-                    }
-                    byte[] decryptedContent = encryptionService.decrypt(
-                            doc.getEncryptedContent(),
-                            oldPassword
-                    );
-                    byte[] newEncryptedContent = encryptionService.encrypt(decryptedContent, newPassword);
-                    String newPasswordHash = encryptionService.hashPassword(newPassword);
-                    doc.setEncryptedContent(newEncryptedContent);
-                    doc.setPasswordHash(newPasswordHash);
-                    repository.save(doc);
-                    return true;
-                })
-                .orElse(false);
-    }
-
-    /**
-     * Получить количество документов используя Stream API
+        return modify(id, doc -> {
+            byte[] currentContent = doc.getEncryptedContent();
+            byte[] decryptedContent;
+            try {
+                decryptedContent = encryptionService.decrypt(
+                        encryptionService.open(currentContent, oldPassword),
+                        currentContent
+                );
+            } catch (SecurityException e) {
+                throw new SecurityException("Неверный старый пароль", e);
+            }
+            DocumentKey newKey = encryptionService.deriveKey(newPassword);
+            byte[] newEncryptedContent = encryptionService.encrypt(newKey, decryptedContent);
+            doc.setEncryptedContent(newEncryptedContent);
+            // Хеш прежнего пароля из старых метаданных больше не соответствует содержимому
+            doc.setPasswordHash(null);
+        }).isPresent();
+    }
+
+    /**
+     * Применить изменение к копии документа и сохранить её, если документ не изменился с момента
+     * чтения; при конфликте версий документ перечитывается и изменение повторяется
+     *
+     * @return сохранённый документ или пусто, если документа нет (в том числе удалён во время изменения)
+     */
+    private Optional<Document> modify(String id, Consumer<Document> change) {
+        while (true) {
+            Optional<Document> current = repository.findById(id);
+            if (current.isEmpty()) {
+                return Optional.empty();
+            }
+            Document updated = current.get().copy();
+            change.accept(updated);
+            SaveResult result = repository.compareAndSave(updated, current.get().getVersion());
+            if (result.isSaved()) {
+                return Optional.of(updated);
+            }
+            if (result.getVersion() == SaveResult.ABSENT) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    /**
+     * Статистика репозитория (счётчики, без перебора документов)
+     */
+    public RepositoryStatistics.Snapshot getStatistics() {
+        return repository.getStatistics();
+    }
+
+    /**
+     * Получить количество документов
      */
     public int getDocumentCount() {
         return repository.count();
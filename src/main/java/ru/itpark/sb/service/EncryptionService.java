@@ -1,13 +1,24 @@
 package ru.itpark.sb.service;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.concurrent.Callable;
 
 /**
  * Сервис для шифрования и дешифрования документов
@@ -18,14 +29,29 @@ public class EncryptionService {
     private static final int GCM_IV_LENGTH = 12;
     private static final int GCM_TAG_LENGTH = 16;
     private static final int SALT_LENGTH = 16;
+    private static final byte[] STREAM_MAGIC = {'E', 'D', 'S', '1'};
+    private static final int STREAM_NONCE_PREFIX_LENGTH = GCM_IV_LENGTH - Integer.BYTES - 1;
+    private static final int STREAM_HEADER_LENGTH = STREAM_MAGIC.length + SALT_LENGTH + STREAM_NONCE_PREFIX_LENGTH + Integer.BYTES;
+    private static final int STREAM_CHUNK_SIZE = 64 * 1024;
+    private static final int STREAM_MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 4;
+
+    /**
+     * Переиспользуемые криптопримитивы: поиск провайдера и инициализация генератора
+     * выполняются один раз на экземпляр, а не на каждую операцию
+     */
+    private final ObjectPool<MessageDigest> digests = new ObjectPool<>(
+            () -> createInstance(() -> MessageDigest.getInstance("SHA-256")), POOL_SIZE);
+    private final ObjectPool<Cipher> ciphers = new ObjectPool<>(
+            () -> createInstance(() -> Cipher.getInstance(ALGORITHM)), POOL_SIZE);
+    private final ObjectPool<SecureRandom> randoms = new ObjectPool<>(SecureRandom::new, POOL_SIZE);
 
     /**
      * Хеширование пароля с солью
      */
     public String hashPassword(String password) {
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(password.getBytes(StandardCharsets.UTF_8));
+            byte[] hash = digests.use(digest -> digest.digest(password.getBytes(StandardCharsets.UTF_8)));
             return Base64.getEncoder().encodeToString(hash);
         } catch (Exception e) {
             throw new RuntimeException("Ошибка при хешировании пароля", e);
@@ -44,46 +70,90 @@ public class EncryptionService {
      * Генерация ключа из пароля
      */
     private SecretKey generateKeyFromPassword(String password, byte[] salt) {
+        return generateKeyFromPassword(password, salt, 0);
+    }
+
+    /**
+     * Генерация ключа из пароля и соли, расположенной в массиве по смещению
+     */
+    private SecretKey generateKeyFromPassword(String password, byte[] source, int saltOffset) {
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            digest.update(salt);
-            byte[] key = digest.digest(password.getBytes(StandardCharsets.UTF_8));
+            byte[] key = digests.use(digest -> {
+                digest.reset();
+                digest.update(source, saltOffset, SALT_LENGTH);
+                return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+            });
             return new SecretKeySpec(key, KEY_ALGORITHM);
         } catch (Exception e) {
             throw new RuntimeException("Ошибка при генерации ключа из пароля", e);
         }
     }
 
+    /**
+     * Размер зашифрованных данных (соль + IV + шифротекст + тег) для открытого текста заданной длины
+     */
+    public int encryptedLength(int plainLength) {
+        return SALT_LENGTH + GCM_IV_LENGTH + plainLength + GCM_TAG_LENGTH;
+    }
+
     /**
      * Шифрование данных с использованием пароля
      */
     public byte[] encrypt(byte[] data, String password) {
+        return encrypt(data, 0, data.length, password);
+    }
+
+    /**
+     * Шифрование части массива; результат выделяется одним массивом итогового размера
+     */
+    public byte[] encrypt(byte[] data, int offset, int length, String password) {
+        byte[] result = new byte[encryptedLength(length)];
+        encrypt(data, offset, length, result, 0, password);
+        return result;
+    }
+
+    /**
+     * Шифрование в буфер вызывающего: соль, IV и шифротекст записываются сразу на свои места
+     *
+     * @return количество записанных байт
+     */
+    public int encrypt(byte[] data, int offset, int length, byte[] destination, int destinationOffset, String password) {
         try {
-            // Генерация соли и IV
-            SecureRandom random = new SecureRandom();
-            byte[] salt = new byte[SALT_LENGTH];
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            random.nextBytes(salt);
-            random.nextBytes(iv);
+            // Генерация соли и IV сразу в итоговом буфере
+            byte[] header = randomBytes(SALT_LENGTH + GCM_IV_LENGTH);
+            System.arraycopy(header, 0, destination, destinationOffset, header.length);
 
             // Генерация ключа из пароля
-            SecretKey key = generateKeyFromPassword(password, salt);
-
-            // Инициализация шифра
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv);
-            cipher.init(Cipher.ENCRYPT_MODE, key, parameterSpec);
+            SecretKey key = generateKeyFromPassword(password, header, 0);
 
-            // Шифрование данных
-            byte[] encryptedData = cipher.doFinal(data);
+            // Шифрование прямо за заголовком в итоговом буфере
+            GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH * 8, header, SALT_LENGTH, GCM_IV_LENGTH);
+            return header.length + ciphers.use(cipher -> {
+                cipher.init(Cipher.ENCRYPT_MODE, key, parameterSpec);
+                return cipher.doFinal(data, offset, length, destination, destinationOffset + header.length);
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("Ошибка при шифровании данных", e);
+        }
+    }
 
-            // Объединение соли, IV и зашифрованных данных
-            byte[] result = new byte[SALT_LENGTH + GCM_IV_LENGTH + encryptedData.length];
-            System.arraycopy(salt, 0, result, 0, SALT_LENGTH);
-            System.arraycopy(iv, 0, result, SALT_LENGTH, GCM_IV_LENGTH);
-            System.arraycopy(encryptedData, 0, result, SALT_LENGTH + GCM_IV_LENGTH, encryptedData.length);
+    /**
+     * Шифрование из буфера в буфер: позиция источника сдвигается на прочитанные данные,
+     * позиция приёмника — на записанные
+     *
+     * @return количество записанных байт
+     */
+    public int encrypt(ByteBuffer source, ByteBuffer destination, String password) {
+        try {
+            byte[] header = randomBytes(SALT_LENGTH + GCM_IV_LENGTH);
+            SecretKey key = generateKeyFromPassword(password, header, 0);
 
-            return result;
+            destination.put(header);
+            return header.length + ciphers.use(cipher -> {
+                cipher.init(Cipher.ENCRYPT_MODE, key,
+                        new GCMParameterSpec(GCM_TAG_LENGTH * 8, header, SALT_LENGTH, GCM_IV_LENGTH));
+                return cipher.doFinal(source, destination);
+            });
         } catch (Exception e) {
             throw new RuntimeException("Ошибка при шифровании данных", e);
         }
@@ -93,29 +163,283 @@ public class EncryptionService {
      * Дешифрование данных с использованием пароля
      */
     public byte[] decrypt(byte[] encryptedData, String password) {
+        return decrypt(encryptedData, 0, encryptedData.length, password);
+    }
+
+    /**
+     * Дешифрование части массива: соль, IV и шифротекст читаются на месте,
+     * выделяется только массив под результат
+     */
+    public byte[] decrypt(byte[] source, int offset, int length, String password) {
         try {
-            // Извлечение соли, IV и зашифрованных данных
-            byte[] salt = new byte[SALT_LENGTH];
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            byte[] cipherText = new byte[encryptedData.length - SALT_LENGTH - GCM_IV_LENGTH];
+            requireEncryptedLength(length);
+            SecretKey key = generateKeyFromPassword(password, source, offset);
 
-            System.arraycopy(encryptedData, 0, salt, 0, SALT_LENGTH);
-            System.arraycopy(encryptedData, SALT_LENGTH, iv, 0, GCM_IV_LENGTH);
-            System.arraycopy(encryptedData, SALT_LENGTH + GCM_IV_LENGTH, cipherText, 0, cipherText.length);
+            GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH * 8, source,
+                    offset + SALT_LENGTH, GCM_IV_LENGTH);
+            int headerLength = SALT_LENGTH + GCM_IV_LENGTH;
+            return ciphers.use(cipher -> {
+                cipher.init(Cipher.DECRYPT_MODE, key, parameterSpec);
+                return cipher.doFinal(source, offset + headerLength, length - headerLength);
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("Ошибка при дешифровании данных. Проверьте пароль.", e);
+        }
+    }
 
-            // Генерация ключа из пароля
+    /**
+     * Дешифрование из буфера в буфер
+     *
+     * @return количество записанных байт
+     */
+    public int decrypt(ByteBuffer source, ByteBuffer destination, String password) {
+        try {
+            requireEncryptedLength(source.remaining());
+            byte[] header = new byte[SALT_LENGTH + GCM_IV_LENGTH];
+            source.get(header);
+            SecretKey key = generateKeyFromPassword(password, header, 0);
+
+            return ciphers.use(cipher -> {
+                cipher.init(Cipher.DECRYPT_MODE, key,
+                        new GCMParameterSpec(GCM_TAG_LENGTH * 8, header, SALT_LENGTH, GCM_IV_LENGTH));
+                return cipher.doFinal(source, destination);
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("Ошибка при дешифровании данных. Проверьте пароль.", e);
+        }
+    }
+
+    /**
+     * Открыть зашифрованные данные паролем: ключ выводится один раз из пароля и соли данных.
+     * Пароль проверяется тегом GCM при {@link #decrypt(DocumentKey, byte[])}.
+     */
+    public DocumentKey open(byte[] encryptedData, String password) {
+        requireEncryptedLength(encryptedData.length);
+        return new DocumentKey(Arrays.copyOf(encryptedData, SALT_LENGTH),
+                generateKeyFromPassword(password, encryptedData, 0));
+    }
+
+    /**
+     * Вывести ключ из пароля с новой случайной солью
+     */
+    public DocumentKey deriveKey(String password) {
+        try {
+            byte[] salt = randomBytes(SALT_LENGTH);
+            return new DocumentKey(salt, generateKeyFromPassword(password, salt));
+        } catch (Exception e) {
+            throw new RuntimeException("Ошибка при генерации ключа из пароля", e);
+        }
+    }
+
+    /**
+     * Дешифрование готовым ключом без повторного вывода ключа
+     *
+     * @throws SecurityException если тег GCM не совпал (неверный пароль или повреждённые данные)
+     */
+    public byte[] decrypt(DocumentKey key, byte[] encryptedData) {
+        requireEncryptedLength(encryptedData.length);
+        if (!key.matches(encryptedData, 0)) {
+            throw new IllegalArgumentException("Ключ выведен для других данных");
+        }
+        try {
+            GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH * 8, encryptedData,
+                    SALT_LENGTH, GCM_IV_LENGTH);
+            int headerLength = SALT_LENGTH + GCM_IV_LENGTH;
+            return ciphers.use(cipher -> {
+                cipher.init(Cipher.DECRYPT_MODE, key.secretKey(), parameterSpec);
+                return cipher.doFinal(encryptedData, headerLength, encryptedData.length - headerLength);
+            });
+        } catch (AEADBadTagException e) {
+            throw new SecurityException("Неверный пароль", e);
+        } catch (Exception e) {
+            throw new RuntimeException("Ошибка при дешифровании данных", e);
+        }
+    }
+
+    /**
+     * Шифрование готовым ключом: соль ключа и новый случайный IV, формат совпадает с {@link #encrypt(byte[], String)}
+     */
+    public byte[] encrypt(DocumentKey key, byte[] data) {
+        try {
+            byte[] result = new byte[encryptedLength(data.length)];
+            System.arraycopy(key.salt(), 0, result, 0, SALT_LENGTH);
+            byte[] iv = randomBytes(GCM_IV_LENGTH);
+            System.arraycopy(iv, 0, result, SALT_LENGTH, GCM_IV_LENGTH);
+            ciphers.use(cipher -> {
+                cipher.init(Cipher.ENCRYPT_MODE, key.secretKey(), new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv));
+                return cipher.doFinal(data, 0, data.length, result, SALT_LENGTH + GCM_IV_LENGTH);
+            });
+            return result;
+        } catch (Exception e) {
+            throw new RuntimeException("Ошибка при шифровании данных", e);
+        }
+    }
+
+    /**
+     * Случайные байты из пула генераторов
+     */
+    private byte[] randomBytes(int length) throws Exception {
+        byte[] bytes = new byte[length];
+        randoms.use(random -> {
+            random.nextBytes(bytes);
+            return bytes;
+        });
+        return bytes;
+    }
+
+    private static <T> T createInstance(Callable<T> factory) {
+        try {
+            return factory.call();
+        } catch (Exception e) {
+            throw new IllegalStateException("Криптопримитив недоступен: " + e.getMessage(), e);
+        }
+    }
+
+    private static void requireEncryptedLength(int length) {
+        if (length < SALT_LENGTH + GCM_IV_LENGTH + GCM_TAG_LENGTH) {
+            throw new IllegalArgumentException("Слишком короткие зашифрованные данные: " + length);
+        }
+    }
+
+    /**
+     * Потоковое шифрование: данные читаются и шифруются блоками фиксированного размера,
+     * поэтому расход памяти не зависит от размера документа.
+     * <p>
+     * Формат: [MAGIC][соль][префикс nonce][размер блока], далее блоки [флаг последнего][длина][шифротекст+тег].
+     * Nonce блока = префикс || номер блока || флаг последнего блока, а заголовок потока передаётся
+     * как AAD, поэтому перестановка, удаление и обрезка блоков обнаруживаются при расшифровке.
+     */
+    public void encrypt(InputStream input, OutputStream output, String password) {
+        Cipher cipher = ciphers.borrow();
+        try {
+            byte[] salt = randomBytes(SALT_LENGTH);
+            byte[] noncePrefix = randomBytes(STREAM_NONCE_PREFIX_LENGTH);
+            byte[] header = streamHeader(salt, noncePrefix, STREAM_CHUNK_SIZE);
             SecretKey key = generateKeyFromPassword(password, salt);
+            DataOutputStream out = new DataOutputStream(output);
+            out.write(header);
+
+            byte[] current = new byte[STREAM_CHUNK_SIZE];
+            byte[] next = new byte[STREAM_CHUNK_SIZE];
+            byte[] encrypted = new byte[STREAM_CHUNK_SIZE + GCM_TAG_LENGTH];
+            int currentLength = input.readNBytes(current, 0, STREAM_CHUNK_SIZE);
+            for (long chunkIndex = 0; ; chunkIndex++) {
+                // Чтение на блок вперёд позволяет пометить последний блок без знания общей длины
+                int nextLength = currentLength == STREAM_CHUNK_SIZE
+                        ? input.readNBytes(next, 0, STREAM_CHUNK_SIZE)
+                        : 0;
+                boolean last = nextLength == 0;
 
-            // Инициализация шифра для дешифрования
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv);
-            cipher.init(Cipher.DECRYPT_MODE, key, parameterSpec);
+                cipher.init(Cipher.ENCRYPT_MODE, key, chunkParameters(noncePrefix, chunkIndex, last));
+                cipher.updateAAD(header);
+                int encryptedLength = cipher.doFinal(current, 0, currentLength, encrypted, 0);
+                out.writeByte(last ? 1 : 0);
+                out.writeInt(encryptedLength);
+                out.write(encrypted, 0, encryptedLength);
+                if (last) {
+                    break;
+                }
 
-            // Дешифрование данных
-            return cipher.doFinal(cipherText);
+                byte[] swap = current;
+                current = next;
+                next = swap;
+                currentLength = nextLength;
+            }
+            out.flush();
         } catch (Exception e) {
-            throw new RuntimeException("Ошибка при дешифровании данных. Проверьте пароль.", e);
+            throw new RuntimeException("Ошибка при потоковом шифровании данных", e);
+        } finally {
+            ciphers.release(cipher);
         }
     }
-}
 
+    /**
+     * Потоковое шифрование из канала в канал
+     */
+    public void encrypt(ReadableByteChannel input, WritableByteChannel output, String password) {
+        encrypt(Channels.newInputStream(input), Channels.newOutputStream(output), password);
+    }
+
+    /**
+     * Потоковое дешифрование данных, зашифрованных {@link #encrypt(InputStream, OutputStream, String)}.
+     * В выходной поток попадают только блоки, прошедшие проверку тега.
+     */
+    public void decrypt(InputStream input, OutputStream output, String password) {
+        Cipher cipher = ciphers.borrow();
+        try {
+            DataInputStream in = new DataInputStream(input);
+            byte[] header = in.readNBytes(STREAM_HEADER_LENGTH);
+            if (header.length != STREAM_HEADER_LENGTH
+                    || !Arrays.equals(header, 0, STREAM_MAGIC.length, STREAM_MAGIC, 0, STREAM_MAGIC.length)) {
+                throw new IllegalArgumentException("Неверный формат потока");
+            }
+            byte[] salt = Arrays.copyOfRange(header, STREAM_MAGIC.length, STREAM_MAGIC.length + SALT_LENGTH);
+            byte[] noncePrefix = Arrays.copyOfRange(header, STREAM_MAGIC.length + SALT_LENGTH,
+                    STREAM_MAGIC.length + SALT_LENGTH + STREAM_NONCE_PREFIX_LENGTH);
+            int chunkSize = ByteBuffer.wrap(header, STREAM_HEADER_LENGTH - Integer.BYTES, Integer.BYTES).getInt();
+            if (chunkSize <= 0 || chunkSize > STREAM_MAX_CHUNK_SIZE) {
+                throw new IllegalArgumentException("Недопустимый размер блока: " + chunkSize);
+            }
+
+            SecretKey key = generateKeyFromPassword(password, salt);
+            byte[] encrypted = new byte[chunkSize + GCM_TAG_LENGTH];
+            byte[] decrypted = new byte[chunkSize + GCM_TAG_LENGTH];
+            for (long chunkIndex = 0; ; chunkIndex++) {
+                int flag = in.read();
+                if (flag < 0) {
+                    throw new IllegalArgumentException("Поток обрезан: отсутствует последний блок");
+                }
+                int encryptedLength = in.readInt();
+                if (encryptedLength < GCM_TAG_LENGTH || encryptedLength > encrypted.length) {
+                    throw new IllegalArgumentException("Недопустимая длина блока: " + encryptedLength);
+                }
+                in.readFully(encrypted, 0, encryptedLength);
+
+                boolean last = flag == 1;
+                cipher.init(Cipher.DECRYPT_MODE, key, chunkParameters(noncePrefix, chunkIndex, last));
+                cipher.updateAAD(header);
+                int decryptedLength = cipher.doFinal(encrypted, 0, encryptedLength, decrypted, 0);
+                output.write(decrypted, 0, decryptedLength);
+                if (last) {
+                    if (in.read() >= 0) {
+                        throw new IllegalArgumentException("Данные после последнего блока");
+                    }
+                    break;
+                }
+            }
+            output.flush();
+        } catch (Exception e) {
+            throw new RuntimeException("Ошибка при потоковом дешифровании данных. Проверьте пароль.", e);
+        } finally {
+            ciphers.release(cipher);
+        }
+    }
+
+    /**
+     * Потоковое дешифрование из канала в канал
+     */
+    public void decrypt(ReadableByteChannel input, WritableByteChannel output, String password) {
+        decrypt(Channels.newInputStream(input), Channels.newOutputStream(output), password);
+    }
+
+    private static byte[] streamHeader(byte[] salt, byte[] noncePrefix, int chunkSize) {
+        return ByteBuffer.allocate(STREAM_HEADER_LENGTH)
+                .put(STREAM_MAGIC)
+                .put(salt)
+                .put(noncePrefix)
+                .putInt(chunkSize)
+                .array();
+    }
+
+    private static GCMParameterSpec chunkParameters(byte[] noncePrefix, long chunkIndex, boolean last) {
+        if (chunkIndex > 0xFFFFFFFFL) {
+            throw new IllegalStateException("Превышено максимальное число блоков в потоке");
+        }
+        byte[] nonce = ByteBuffer.allocate(GCM_IV_LENGTH)
+                .put(noncePrefix)
+                .putInt((int) chunkIndex)
+                .put((byte) (last ? 1 : 0))
+                .array();
+        return new GCMParameterSpec(GCM_TAG_LENGTH * 8, nonce);
+    }
+}
@@ -0,0 +1,100 @@
+package ru.itpark.sb.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * Хранилище содержимого: отдельный файл &lt;id&gt;.enc на каждый документ
+ */
+@Slf4j
+public class FileContentStore implements ContentStore {
+    private final Path contentDirectory;
+
+    public FileContentStore(Path contentDirectory) {
+        this.contentDirectory = contentDirectory;
+        try {
+            Files.createDirectories(contentDirectory);
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка при инициализации директории содержимого: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void save(String documentId, byte[] encryptedContent) {
+        try {
+            Path contentFile = contentDirectory.resolve(documentId + ".enc");
+            Files.write(contentFile, encryptedContent, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            log.debug("Сохранено содержимое документа: {}", documentId);
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка при сохранении содержимого документа: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Optional<byte[]> load(String documentId) {
+        try {
+            Path contentFile = contentDirectory.resolve(documentId + ".enc");
+            if (!Files.exists(contentFile)) {
+                return Optional.empty();
+            }
+            byte[] content = Files.readAllBytes(contentFile);
+            log.debug("Загружено содержимое документа: {}", documentId);
+            return Optional.of(content);
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка при загрузке содержимого документа: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean exists(String documentId) {
+        return Files.exists(contentDirectory.resolve(documentId + ".enc"));
+    }
+
+    @Override
+    public OptionalLong size(String documentId) {
+        try {
+            Path contentFile = contentDirectory.resolve(documentId + ".enc");
+            return Files.exists(contentFile) ? OptionalLong.of(Files.size(contentFile)) : OptionalLong.empty();
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка при определении размера содержимого документа: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void sync(Collection<String> documentIds) {
+        for (String documentId : documentIds) {
+            try (FileChannel channel = FileChannel.open(contentDirectory.resolve(documentId + ".enc"),
+                    StandardOpenOption.WRITE)) {
+                channel.force(true);
+            } catch (NoSuchFileException e) {
+                // Содержимое уже удалено: сбрасывать нечего
+            } catch (IOException e) {
+                throw new RuntimeException("Ошибка при сбросе содержимого документа на диск: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public boolean delete(String documentId) {
+        try {
+            Path contentFile = contentDirectory.resolve(documentId + ".enc");
+            if (!Files.exists(contentFile)) {
+                return false;
+            }
+            Files.delete(contentFile);
+            log.debug("Удалено содержимое документа: {}", documentId);
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка при удалении содержимого документа: " + e.getMessage(), e);
+        }
+    }
+}
@@ -3,12 +3,19 @@ package ru.itpark.sb.service;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
-import java.util.stream.Stream;
+import java.util.OptionalLong;
 
 /**
  * Сервис для работы с файлами на диске
@@ -16,14 +23,25 @@ import java.util.stream.Stream;
 @Slf4j
 public class FileStorageService {
     private final Path storageDirectory;
-    private final Path contentDirectory;
     private final Path metadataFile;
+    private final Path metadataTempFile;
+    private final Path journalFile;
+    private final ContentStore contentStore;
 
     public FileStorageService(String baseDirectory) {
+        this(baseDirectory, StorageBackend.FILE_PER_DOCUMENT);
+    }
+
+    public FileStorageService(String baseDirectory, StorageBackend backend) {
         this.storageDirectory = Paths.get(baseDirectory);
-        this.contentDirectory = storageDirectory.resolve("content");
         this.metadataFile = storageDirectory.resolve("metadata.json");
+        this.metadataTempFile = storageDirectory.resolve("metadata.json.tmp");
+        this.journalFile = storageDirectory.resolve("metadata.journal");
         initializeDirectories();
+        this.contentStore = switch (backend) {
+            case FILE_PER_DOCUMENT -> new FileContentStore(storageDirectory.resolve("content"));
+            case SEGMENTED -> SegmentedContentStore.open(storageDirectory.resolve("segments"));
+        };
     }
 
     /**
@@ -32,7 +50,6 @@ public class FileStorageService {
     private void initializeDirectories() {
         try {
             Files.createDirectories(storageDirectory);
-            Files.createDirectories(contentDirectory);
             if (!Files.exists(metadataFile)) {
                 Files.createFile(metadataFile);
                 Files.writeString(metadataFile, "[]");
@@ -43,58 +60,74 @@ public class FileStorageService {
     }
 
     /**
-     * Сохранить зашифрованное содержимое документа в файл
+     * Сохранить зашифрованное содержимое документа
      */
     public void saveDocumentContent(String documentId, byte[] encryptedContent) {
-        try {
-            Path contentFile = contentDirectory.resolve(documentId + ".enc");
-            Files.write(contentFile, encryptedContent, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-            log.debug("Сохранено содержимое документа: {}", documentId);
-        } catch (IOException e) {
-            throw new RuntimeException("Ошибка при сохранении содержимого документа: " + e.getMessage(), e);
-        }
+        contentStore.save(documentId, encryptedContent);
     }
 
     /**
-     * Загрузить зашифрованное содержимое документа из файла
+     * Загрузить зашифрованное содержимое документа
      */
     public Optional<byte[]> loadDocumentContent(String documentId) {
-        try {
-            Path contentFile = contentDirectory.resolve(documentId + ".enc");
-            if (!Files.exists(contentFile)) {
-                return Optional.empty();
-            }
-            byte[] content = Files.readAllBytes(contentFile);
-            log.debug("Загружено содержимое документа: {}", documentId);
-            return Optional.of(content);
-        } catch (IOException e) {
-            throw new RuntimeException("Ошибка при загрузке содержимого документа: " + e.getMessage(), e);
+        return contentStore.load(documentId);
+    }
+
+    /**
+     * Проверить наличие содержимого документа
+     */
+    public boolean hasDocumentContent(String documentId) {
+        return contentStore.exists(documentId);
+    }
+
+    /**
+     * Размер содержимого документа без его чтения; пусто, если содержимого нет
+     */
+    public OptionalLong getDocumentContentSize(String documentId) {
+        return contentStore.size(documentId);
+    }
+
+    /**
+     * Сбросить на диск (fsync) сохранённое содержимое документов
+     */
+    public void syncDocumentContent(Collection<String> documentIds) {
+        if (!documentIds.isEmpty()) {
+            contentStore.sync(documentIds);
         }
     }
 
     /**
-     * Удалить файл с содержимым документа
+     * Удалить содержимое документа
      */
     public boolean deleteDocumentContent(String documentId) {
-        try {
-            Path contentFile = contentDirectory.resolve(documentId + ".enc");
-            if (!Files.exists(contentFile)) {
-                return false;
-            }
-            Files.delete(contentFile);
-            log.debug("Удалено содержимое документа: {}", documentId);
-            return true;
-        } catch (IOException e) {
-            throw new RuntimeException("Ошибка при удалении содержимого документа: " + e.getMessage(), e);
-        }
+        return contentStore.delete(documentId);
+    }
+
+    /**
+     * Хранилище содержимого документов
+     */
+    public ContentStore getContentStore() {
+        return contentStore;
     }
 
     /**
-     * Сохранить метаданные документов в JSON файл
+     * Закрыть хранилище содержимого
+     */
+    public void close() {
+        contentStore.close();
+    }
+
+    /**
+     * Сохранить метаданные документов в JSON файл атомарно: снимок пишется во временный файл,
+     * сбрасывается на диск и переименовывается поверх прежнего, поэтому после сбоя на диске
+     * остаётся либо старый, либо новый снимок целиком
      */
     public void saveMetadata(String json) {
         try {
-            Files.writeString(metadataFile, json, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            Files.writeString(metadataTempFile, json, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            force(metadataTempFile, "метаданных");
+            Files.move(metadataTempFile, metadataFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            syncDirectory();
             log.debug("Метаданные сохранены");
         } catch (IOException e) {
             throw new RuntimeException("Ошибка при сохранении метаданных: " + e.getMessage(), e);
@@ -114,5 +147,125 @@ public class FileStorageService {
             throw new RuntimeException("Ошибка при загрузке метаданных: " + e.getMessage(), e);
         }
     }
-}
 
+    /**
+     * Дописать записи в конец журнала метаданных (по одной записи на строку)
+     */
+    public void appendJournal(List<String> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        try {
+            StringBuilder builder = new StringBuilder();
+            records.forEach(record -> builder.append(record).append('\n'));
+            Files.writeString(journalFile, builder, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            log.debug("В журнал метаданных дописано записей: {}", records.size());
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка при записи журнала метаданных: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Сбросить журнал метаданных на диск (fsync)
+     */
+    public void syncJournal() {
+        force(journalFile, "журнала метаданных");
+    }
+
+    private static void force(Path file, String description) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка при сбросе " + description + " на диск: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Сбросить на диск запись каталога, чтобы переименование снимка пережило сбой питания.
+     * Не все файловые системы позволяют открыть каталог, поэтому ошибка только журналируется.
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(storageDirectory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("Не удалось сбросить каталог хранилища на диск: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Загрузить записи журнала метаданных. Журнал читается байтами, а каждая строка декодируется
+     * нестрого: запись, оборванная посреди многобайтового символа, не мешает прочитать предыдущие.
+     * Последней возвращается и недописанная строка без перевода строки.
+     */
+    public List<String> loadJournal() {
+        try {
+            if (!Files.exists(journalFile)) {
+                return List.of();
+            }
+            byte[] bytes = Files.readAllBytes(journalFile);
+            List<String> records = new ArrayList<>();
+            int start = 0;
+            while (start < bytes.length) {
+                int end = lineEnd(bytes, start);
+                records.add(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+                start = end + 1;
+            }
+            return records;
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка при загрузке журнала метаданных: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Оставить в журнале только первые records записей: отрезать повреждённый хвост и завершить
+     * последнюю запись переводом строки, чтобы следующая дозапись не склеилась с обрывком.
+     * Если обрезать нечего, файл не изменяется.
+     */
+    public void truncateJournal(int records) {
+        try {
+            if (!Files.exists(journalFile)) {
+                return;
+            }
+            byte[] bytes = Files.readAllBytes(journalFile);
+            int end = 0;
+            for (int kept = 0; kept < records && end < bytes.length; kept++) {
+                end = Math.min(lineEnd(bytes, end) + 1, bytes.length);
+            }
+            boolean terminated = end == 0 || bytes[end - 1] == '\n';
+            if (end == bytes.length && terminated) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+                channel.truncate(end);
+                if (!terminated) {
+                    channel.write(ByteBuffer.wrap(new byte[]{'\n'}), end);
+                }
+                channel.force(false);
+            }
+            log.warn("Журнал метаданных обрезан после {} записей, отброшено байт: {}", records, bytes.length - end);
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка при обрезке журнала метаданных: " + e.getMessage(), e);
+        }
+    }
+
+    private static int lineEnd(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return bytes.length;
+    }
+
+    /**
+     * Очистить журнал метаданных после сохранения снимка
+     */
+    public void clearJournal() {
+        try {
+            Files.write(journalFile, new byte[0], StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            log.debug("Журнал метаданных очищен");
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка при очистке журнала метаданных: " + e.getMessage(), e);
+        }
+    }
+}
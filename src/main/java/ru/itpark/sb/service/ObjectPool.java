@@ -0,0 +1,68 @@
+package ru.itpark.sb.service;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Неблокирующий пул переиспользуемых объектов (Cipher, MessageDigest, SecureRandom).
+ * <p>
+ * В отличие от ThreadLocal, пул не создаёт по экземпляру на каждый виртуальный поток,
+ * а без блокировок (synchronized) не «прикалывает» виртуальный поток к несущему.
+ * Если свободных объектов нет, создаётся новый; лишние объекты при возврате отбрасываются.
+ */
+public class ObjectPool<T> {
+    private final Queue<T> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final Supplier<T> factory;
+    private final int maxIdle;
+
+    public ObjectPool(Supplier<T> factory, int maxIdle) {
+        this.factory = factory;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Выполнить действие с объектом из пула и вернуть объект в пул
+     */
+    public <R> R use(PooledAction<T, R> action) throws Exception {
+        T object = borrow();
+        try {
+            return action.apply(object);
+        } finally {
+            release(object);
+        }
+    }
+
+    /**
+     * Взять объект из пула (или создать новый); после использования объект нужно вернуть через {@link #release}
+     */
+    public T borrow() {
+        T object = idle.poll();
+        if (object == null) {
+            return factory.get();
+        }
+        idleCount.decrementAndGet();
+        return object;
+    }
+
+    /**
+     * Вернуть объект в пул
+     */
+    public void release(T object) {
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.offer(object);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Действие над объектом из пула
+     */
+    @FunctionalInterface
+    public interface PooledAction<T, R> {
+        R apply(T object) throws Exception;
+    }
+}
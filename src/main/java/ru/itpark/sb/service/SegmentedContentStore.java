@@ -0,0 +1,641 @@
+package ru.itpark.sb.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Журнально-структурированное хранилище содержимого.
+ * <p>
+ * Содержимое документов дописывается в конец больших файлов-сегментов, индекс в памяти хранит
+ * для каждого документа сегмент, смещение и длину. Чтение идёт через отображённые в память сегменты.
+ * Удаление записывает «надгробие». Фоновое уплотнение переписывает сегменты с большой долей мусора:
+ * живые записи копируются во временный файл без блокировки хранилища (закрытый сегмент уже
+ * не меняется), а блокировка записи берётся только на замену файла и перенос индекса.
+ * Уплотнённый сегмент сохраняет свой номер, поэтому порядок сегментов при восстановлении не меняется.
+ * <p>
+ * Формат записи: [длина ID:int][ID:UTF-8][длина содержимого:int, -1 для удаления][содержимое][CRC32:int].
+ * Индекс восстанавливается сканированием сегментов при открытии; недописанный хвост отбрасывается.
+ */
+@Slf4j
+public class SegmentedContentStore implements ContentStore {
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+    public static final Duration DEFAULT_COMPACTION_INTERVAL = Duration.ofMinutes(1);
+
+    private static final int TOMBSTONE = -1;
+    private static final int HEADER_LENGTH = Integer.BYTES * 2;
+    private static final int TRAILER_LENGTH = Integer.BYTES;
+    private static final String COMPACTION_SUFFIX = ".compact";
+
+    private final Path segmentDirectory;
+    private final long segmentSizeLimit;
+    private final double compactionThreshold;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * Уплотнения выполняются по одному и не пересекаются с закрытием хранилища
+     */
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private ScheduledExecutorService compactionExecutor;
+    private Segment activeSegment;
+
+    private SegmentedContentStore(Path segmentDirectory, long segmentSizeLimit, double compactionThreshold) {
+        this.segmentDirectory = segmentDirectory;
+        this.segmentSizeLimit = segmentSizeLimit;
+        this.compactionThreshold = compactionThreshold;
+        try {
+            Files.createDirectories(segmentDirectory);
+            openSegments();
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка при открытии сегментов содержимого: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Открыть хранилище с параметрами по умолчанию
+     */
+    public static SegmentedContentStore open(Path segmentDirectory) {
+        return open(segmentDirectory, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_THRESHOLD, DEFAULT_COMPACTION_INTERVAL);
+    }
+
+    /**
+     * Открыть хранилище и запустить фоновое уплотнение, если задан интервал.
+     * Уплотнение запускается после конструктора, чтобы фоновый поток не увидел недостроенный объект.
+     */
+    public static SegmentedContentStore open(Path segmentDirectory, long segmentSizeLimit, double compactionThreshold,
+                                             Duration compactionInterval) {
+        SegmentedContentStore store = new SegmentedContentStore(segmentDirectory, segmentSizeLimit, compactionThreshold);
+        if (compactionInterval != null && !compactionInterval.isZero()) {
+            store.startCompaction(compactionInterval);
+        }
+        return store;
+    }
+
+    private void startCompaction(Duration compactionInterval) {
+        compactionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "segment-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long periodMillis = compactionInterval.toMillis();
+        compactionExecutor.scheduleWithFixedDelay(this::compactQuietly, periodMillis, periodMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void save(String documentId, byte[] encryptedContent) {
+        lock.writeLock().lock();
+        try {
+            Location location = append(documentId, encryptedContent);
+            replaceLocation(documentId, location);
+            log.debug("Сохранено содержимое документа {} в сегмент {}", documentId, location.segmentId);
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка при сохранении содержимого документа: " + e.getMessage(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<byte[]> load(String documentId) {
+        lock.readLock().lock();
+        try {
+            Location location = index.get(documentId);
+            if (location == null) {
+                return Optional.empty();
+            }
+            byte[] content = new byte[location.contentLength];
+            segments.get(location.segmentId).read(location.contentOffset, content);
+            return Optional.of(content);
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка при загрузке содержимого документа: " + e.getMessage(), e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean exists(String documentId) {
+        return index.containsKey(documentId);
+    }
+
+    @Override
+    public OptionalLong size(String documentId) {
+        Location location = index.get(documentId);
+        return location != null ? OptionalLong.of(location.contentLength) : OptionalLong.empty();
+    }
+
+    /**
+     * Сбросить на диск сегменты, в которые писали после предыдущего сброса: одного fsync
+     * активного сегмента обычно достаточно для всех документов группы
+     */
+    @Override
+    public void sync(Collection<String> documentIds) {
+        List<Segment> dirty = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments.values()) {
+                if (segment.dirty) {
+                    segment.dirty = false;
+                    dirty.add(segment);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (Segment segment : dirty) {
+            try {
+                segment.channel.force(false);
+            } catch (ClosedChannelException e) {
+                // Сегмент заменён уплотнением: его копия уже сброшена на диск
+            } catch (IOException e) {
+                segment.dirty = true;
+                throw new RuntimeException("Ошибка при сбросе сегмента на диск: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public boolean delete(String documentId) {
+        lock.writeLock().lock();
+        try {
+            if (!index.containsKey(documentId)) {
+                return false;
+            }
+            Location tombstone = append(documentId, null);
+            replaceLocation(documentId, null);
+            // Надгробие само по себе не является живыми данными
+            segments.get(tombstone.segmentId).liveBytes -= tombstone.recordLength;
+            log.debug("Удалено содержимое документа: {}", documentId);
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка при удалении содержимого документа: " + e.getMessage(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Уплотнить закрытые сегменты, доля мусора в которых не меньше порога
+     *
+     * @return количество уплотнённых сегментов
+     */
+    public int compact() {
+        List<Integer> candidates;
+        lock.readLock().lock();
+        try {
+            candidates = segments.values().stream()
+                    .filter(segment -> segment != activeSegment)
+                    .filter(segment -> segment.garbageRatio() >= compactionThreshold)
+                    .map(segment -> segment.id)
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        int compacted = 0;
+        for (Integer segmentId : candidates) {
+            try {
+                if (compactSegment(segmentId)) {
+                    compacted++;
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Ошибка при уплотнении сегмента " + segmentId + ": " + e.getMessage(), e);
+            }
+        }
+        return compacted;
+    }
+
+    /**
+     * Суммарный размер файлов-сегментов на диске
+     */
+    public long diskUsage() {
+        lock.readLock().lock();
+        try {
+            return segments.values().stream().mapToLong(segment -> segment.size).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Количество файлов-сегментов
+     */
+    public int segmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (compactionExecutor != null) {
+            compactionExecutor.shutdownNow();
+        }
+        compactionLock.lock();
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка при закрытии сегментов: " + e.getMessage(), e);
+        } finally {
+            lock.writeLock().unlock();
+            compactionLock.unlock();
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            int compacted = compact();
+            if (compacted > 0) {
+                log.info("Уплотнено сегментов содержимого: {}", compacted);
+            }
+        } catch (Exception e) {
+            log.error("Ошибка фонового уплотнения сегментов: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Переписать сегмент, оставив только живые записи.
+     * Живые записи копируются во временный файл без блокировки хранилища: закрытый сегмент
+     * не меняется, а индекс читается без блокировки. Копия сбрасывается на диск и под блокировкой
+     * записи атомарно заменяет файл сегмента; индекс переносится только для записей, которые
+     * всё ещё актуальны, — перезаписанные за время копирования становятся мусором в новом файле.
+     * Надгробия переносятся, пока существуют более старые сегменты, в которых может лежать удалённая запись.
+     */
+    private boolean compactSegment(int segmentId) throws IOException {
+        compactionLock.lock();
+        try {
+            Segment segment;
+            boolean hasOlderSegments;
+            lock.readLock().lock();
+            try {
+                segment = segments.get(segmentId);
+                if (segment == null || segment == activeSegment) {
+                    return false;
+                }
+                hasOlderSegments = segments.firstKey() < segmentId;
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            Path copyPath = compactionPath(segment.path);
+            List<Moved> moved = copyLiveRecords(segment, copyPath, hasOlderSegments);
+            long reclaimed = segment.size - Files.size(copyPath);
+            if (!moved.isEmpty() && reclaimed == 0) {
+                // Остались только нужные надгробия: переписывать сегмент незачем
+                Files.delete(copyPath);
+                return false;
+            }
+
+            lock.writeLock().lock();
+            try {
+                if (moved.isEmpty()) {
+                    segments.remove(segmentId);
+                    segment.close();
+                    Files.deleteIfExists(copyPath);
+                    Files.deleteIfExists(segment.path);
+                } else {
+                    // Открытый канал старого сегмента продолжает читать прежний файл до закрытия
+                    Files.move(copyPath, segment.path, StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                    Segment compacted = new Segment(segmentId, segment.path);
+                    for (Moved record : moved) {
+                        if (record.to().contentLength != TOMBSTONE
+                                && index.replace(record.documentId(), record.from(), record.to())) {
+                            compacted.liveBytes += record.to().recordLength;
+                        }
+                    }
+                    segments.put(segmentId, compacted);
+                    segment.close();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            syncDirectory();
+            log.debug("Сегмент {} уплотнён, освобождено {} байт", segmentId, reclaimed);
+            return true;
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Скопировать живые записи сегмента и нужные надгробия в файл copyPath и сбросить его на диск
+     *
+     * @return прежнее и новое положение каждой скопированной записи
+     */
+    private List<Moved> copyLiveRecords(Segment segment, Path copyPath, boolean hasOlderSegments) throws IOException {
+        List<Moved> moved = new ArrayList<>();
+        try (FileChannel copy = FileChannel.open(copyPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            for (Record record : scan(segment)) {
+                Location current = index.get(record.documentId);
+                byte[] content;
+                if (record.isTombstone()) {
+                    if (!hasOlderSegments || current != null) {
+                        continue;
+                    }
+                    content = null;
+                } else if (record.location.equals(current)) {
+                    content = new byte[record.location.contentLength];
+                    segment.read(record.location.contentOffset, content);
+                } else {
+                    continue;
+                }
+                ByteBuffer encoded = encode(record.documentId, content);
+                long contentOffset = position + HEADER_LENGTH
+                        + record.documentId.getBytes(StandardCharsets.UTF_8).length;
+                Location to = new Location(segment.id, contentOffset, record.location.contentLength, encoded.limit());
+                while (encoded.hasRemaining()) {
+                    position += copy.write(encoded, position);
+                }
+                moved.add(new Moved(record.documentId, record.location, to));
+            }
+            if (!moved.isEmpty()) {
+                copy.force(false);
+            }
+        }
+        return moved;
+    }
+
+    private static Path compactionPath(Path segmentPath) {
+        return segmentPath.resolveSibling(segmentPath.getFileName() + COMPACTION_SUFFIX);
+    }
+
+    /**
+     * Сбросить на диск запись каталога после замены файла сегмента.
+     * Не все файловые системы позволяют открыть каталог, поэтому ошибка только журналируется.
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(segmentDirectory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("Не удалось сбросить каталог сегментов на диск: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Открыть существующие сегменты и восстановить индекс
+     */
+    private void openSegments() throws IOException {
+        List<Path> files;
+        List<Path> unfinishedCopies;
+        try (Stream<Path> stream = Files.list(segmentDirectory)) {
+            List<Path> all = stream.toList();
+            files = all.stream()
+                    .filter(path -> path.getFileName().toString().matches("segment-\\d+\\.log"))
+                    .sorted()
+                    .toList();
+            unfinishedCopies = all.stream()
+                    .filter(path -> path.getFileName().toString().endsWith(COMPACTION_SUFFIX))
+                    .toList();
+        }
+        // Копия, не успевшая заменить сегмент до сбоя; сам сегмент остался целым
+        for (Path copy : unfinishedCopies) {
+            Files.deleteIfExists(copy);
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            int segmentId = Integer.parseInt(name.substring("segment-".length(), name.length() - ".log".length()));
+            Segment segment = new Segment(segmentId, file);
+            segments.put(segmentId, segment);
+            for (Record record : scan(segment)) {
+                if (record.isTombstone()) {
+                    replaceLocation(record.documentId, null);
+                } else {
+                    segment.liveBytes += record.location.recordLength;
+                    replaceLocation(record.documentId, record.location);
+                }
+            }
+        }
+        activeSegment = segments.isEmpty() ? createSegment(1) : segments.lastEntry().getValue();
+        log.info("Открыто сегментов содержимого: {}, документов: {}", segments.size(), index.size());
+    }
+
+    /**
+     * Прочитать все корректные записи сегмента; повреждённый хвост обрезается
+     */
+    private List<Record> scan(Segment segment) throws IOException {
+        List<Record> records = new ArrayList<>();
+        ByteBuffer buffer = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+        long position = 0;
+        while (position + HEADER_LENGTH + TRAILER_LENGTH <= segment.size) {
+            buffer.position((int) position);
+            int idLength = buffer.getInt();
+            if (idLength <= 0 || position + Integer.BYTES + idLength + Integer.BYTES > segment.size) {
+                break;
+            }
+            byte[] idBytes = new byte[idLength];
+            buffer.get(idBytes);
+            int contentLength = buffer.getInt();
+            int payloadLength = Math.max(contentLength, 0);
+            long contentOffset = position + Integer.BYTES + idLength + Integer.BYTES;
+            long recordEnd = contentOffset + payloadLength + TRAILER_LENGTH;
+            if (contentLength < TOMBSTONE || recordEnd > segment.size) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate().position((int) position).limit((int) (contentOffset + payloadLength)));
+            buffer.position((int) (contentOffset + payloadLength));
+            if (buffer.getInt() != (int) crc.getValue()) {
+                break;
+            }
+            records.add(new Record(new String(idBytes, StandardCharsets.UTF_8),
+                    new Location(segment.id, contentOffset, contentLength, (int) (recordEnd - position))));
+            position = recordEnd;
+        }
+        if (position < segment.size) {
+            log.warn("Сегмент {} содержит повреждённый хвост, обрезано {} байт", segment.id, segment.size - position);
+            segment.truncate(position);
+        }
+        return records;
+    }
+
+    /**
+     * Дописать запись в активный сегмент (content == null — надгробие)
+     */
+    private Location append(String documentId, byte[] content) throws IOException {
+        byte[] idBytes = documentId.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = content == null ? 0 : content.length;
+        int recordLength = HEADER_LENGTH + idBytes.length + payloadLength + TRAILER_LENGTH;
+        if (activeSegment.size > 0 && activeSegment.size + recordLength > segmentSizeLimit) {
+            activeSegment = createSegment(activeSegment.id + 1);
+        }
+
+        ByteBuffer record = encode(documentId, content);
+        long position = activeSegment.size;
+        activeSegment.write(record);
+        activeSegment.liveBytes += recordLength;
+        long contentOffset = position + Integer.BYTES + idBytes.length + Integer.BYTES;
+        return new Location(activeSegment.id, contentOffset, content == null ? TOMBSTONE : content.length, recordLength);
+    }
+
+    /**
+     * Закодировать запись в формате сегмента (content == null — надгробие)
+     */
+    private static ByteBuffer encode(String documentId, byte[] content) {
+        byte[] idBytes = documentId.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = content == null ? 0 : content.length;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + idBytes.length + payloadLength + TRAILER_LENGTH);
+        record.putInt(idBytes.length)
+                .put(idBytes)
+                .putInt(content == null ? TOMBSTONE : content.length);
+        if (content != null) {
+            record.put(content);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        return record.flip();
+    }
+
+    /**
+     * Обновить индекс и учесть, что предыдущая запись документа стала мусором
+     */
+    private void replaceLocation(String documentId, Location location) {
+        Location previous = location == null ? index.remove(documentId) : index.put(documentId, location);
+        if (previous != null) {
+            Segment previousSegment = segments.get(previous.segmentId);
+            if (previousSegment != null) {
+                previousSegment.liveBytes -= previous.recordLength;
+            }
+        }
+    }
+
+    private Segment createSegment(int segmentId) throws IOException {
+        Segment segment = new Segment(segmentId, segmentDirectory.resolve(String.format("segment-%08d.log", segmentId)));
+        segments.put(segmentId, segment);
+        return segment;
+    }
+
+    /**
+     * Файл-сегмент. Для чтения отображается в память окнами фиксированного размера: заполненное
+     * окно уже не меняется и отображается один раз, а недописанный хвост читается из канала,
+     * поэтому рост сегмента не требует переотображения.
+     */
+    private static class Segment {
+        private static final int WINDOW_SIZE = 4 * 1024 * 1024;
+
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private final Map<Long, MappedByteBuffer> windows = new ConcurrentHashMap<>();
+        private long size;
+        private long liveBytes;
+        /**
+         * В сегмент писали после последнего fsync
+         */
+        private volatile boolean dirty;
+
+        Segment(int id, Path path) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+
+        void write(ByteBuffer record) throws IOException {
+            long position = size;
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+            size = position;
+            dirty = true;
+        }
+
+        /**
+         * Прочитать {@code destination.length} байт с позиции {@code offset}: из отображённого окна,
+         * если запись целиком лежит в заполненном окне, иначе из канала
+         */
+        void read(long offset, byte[] destination) throws IOException {
+            long window = offset / WINDOW_SIZE;
+            long windowEnd = (window + 1) * WINDOW_SIZE;
+            if (offset + destination.length <= windowEnd && windowEnd <= size) {
+                MappedByteBuffer mapped = windows.get(window);
+                if (mapped == null) {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, window * WINDOW_SIZE, WINDOW_SIZE);
+                    windows.putIfAbsent(window, mapped);
+                }
+                mapped.get((int) (offset - window * WINDOW_SIZE), destination);
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(destination);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("Неожиданный конец сегмента " + id);
+                }
+            }
+        }
+
+        void truncate(long length) throws IOException {
+            channel.truncate(length);
+            size = length;
+            windows.clear();
+        }
+
+        double garbageRatio() {
+            return size == 0 ? 0 : 1.0 - (double) liveBytes / size;
+        }
+
+        void close() throws IOException {
+            windows.clear();
+            channel.close();
+        }
+    }
+
+    /**
+     * Положение записи документа в сегменте
+     */
+    private record Location(int segmentId, long contentOffset, int contentLength, int recordLength) {
+    }
+
+    /**
+     * Запись, перенесённая уплотнением из прежнего положения в новое
+     */
+    private record Moved(String documentId, Location from, Location to) {
+    }
+
+    /**
+     * Запись, найденная при сканировании сегмента
+     */
+    private record Record(String documentId, Location location) {
+        boolean isTombstone() {
+            return location.contentLength == TOMBSTONE;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package ru.itpark.sb.service;
+
+/**
+ * Способ хранения содержимого документов на диске
+ */
+public enum StorageBackend {
+    /**
+     * Отдельный файл content/&lt;id&gt;.enc на каждый документ
+     */
+    FILE_PER_DOCUMENT,
+
+    /**
+     * Журнальные сегменты segments/segment-NNNNNNNN.log с индексом смещений
+     */
+    SEGMENTED
+}
@@ -2,8 +2,11 @@ package ru.itpark.sb.ui;
 
 import lombok.RequiredArgsConstructor;
 import ru.itpark.sb.domain.Document;
+import ru.itpark.sb.repository.DocumentPage;
+import ru.itpark.sb.repository.RepositoryStatistics;
 import ru.itpark.sb.service.DocumentService;
 
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
 import java.util.Scanner;
@@ -13,6 +16,9 @@ import java.util.Scanner;
  */
 @RequiredArgsConstructor
 public class ConsoleUI {
+    private static final int PAGE_SIZE = 20;
+    private static final int RECENT_DOCUMENTS = 5;
+
     private final DocumentService documentService;
     private final Scanner scanner = new Scanner(System.in);
 
@@ -125,19 +131,25 @@ public class ConsoleUI {
 
     private void listDocuments() {
         System.out.println("\n=== Список документов ===");
-        List<Document> documents = documentService.getAllDocuments();
+        DocumentPage page = documentService.getDocumentsPage(null, PAGE_SIZE);
 
-        if (documents.isEmpty()) {
+        if (page.getItems().isEmpty()) {
             System.out.println("Документы не найдены.");
             return;
         }
 
-        System.out.println("Всего документов: " + documents.size());
+        System.out.println("Всего документов: " + documentService.getDocumentCount());
         System.out.println();
-        for (int i = 0; i < documents.size(); i++) {
-            Document doc = documents.get(i);
-            System.out.println((i + 1) + ". " + doc.getName() + " (ID: " + doc.getId() + ")");
-            System.out.println("   Создан: " + doc.getCreatedAt());
+        int number = 0;
+        while (true) {
+            for (Document doc : page.getItems()) {
+                System.out.println((++number) + ". " + doc.getName() + " (ID: " + doc.getId() + ")");
+                System.out.println("   Создан: " + doc.getCreatedAt());
+            }
+            if (!page.hasNext() || !askNextPage()) {
+                return;
+            }
+            page = documentService.getDocumentsPage(page.getNextCursor(), PAGE_SIZE);
         }
     }
 
@@ -146,20 +158,31 @@ public class ConsoleUI {
         System.out.print("Введите название для поиска: ");
         String searchName = scanner.nextLine().trim();
 
-        List<Document> documents = documentService.searchDocumentsByName(searchName);
+        DocumentPage page = documentService.searchDocumentsByName(searchName, null, PAGE_SIZE);
 
-        if (documents.isEmpty()) {
+        if (page.getItems().isEmpty()) {
             System.out.println("Документы не найдены.");
             return;
         }
 
-        System.out.println("Найдено документов: " + documents.size());
-        for (int i = 0; i < documents.size(); i++) {
-            Document doc = documents.get(i);
-            System.out.println((i + 1) + ". " + doc.getName() + " (ID: " + doc.getId() + ")");
+        int number = 0;
+        while (true) {
+            for (Document doc : page.getItems()) {
+                System.out.println((++number) + ". " + doc.getName() + " (ID: " + doc.getId() + ")");
+            }
+            if (!page.hasNext() || !askNextPage()) {
+                System.out.println("Показано документов: " + number);
+                return;
+            }
+            page = documentService.searchDocumentsByName(searchName, page.getNextCursor(), PAGE_SIZE);
         }
     }
 
+    private boolean askNextPage() {
+        System.out.print("Enter — следующая страница, q — завершить просмотр: ");
+        return !"q".equalsIgnoreCase(scanner.nextLine().trim());
+    }
+
     private void updateDocument() {
         System.out.println("\n=== Обновление документа ===");
         System.out.print("Введите ID документа: ");
@@ -248,8 +271,24 @@ public class ConsoleUI {
 
     private void showStatistics() {
         System.out.println("\n=== Статистика ===");
-        int count = documentService.getDocumentCount();
-        System.out.println("Всего документов в системе: " + count);
+        RepositoryStatistics.Snapshot statistics = documentService.getStatistics();
+        System.out.println("Всего документов в системе: " + statistics.getDocumentCount());
+        System.out.println("Объём зашифрованного содержимого: " + statistics.getTotalContentBytes() + " байт");
+        System.out.println("Распределение по размеру:");
+        statistics.getSizeHistogram().forEach((range, count) -> System.out.println("  " + range + ": " + count));
+        LocalDate today = LocalDate.now();
+        System.out.println("Сегодня создано: " + statistics.getCreatedPerDay().getOrDefault(today, 0L)
+                + ", изменено: " + statistics.getUpdatedPerDay().getOrDefault(today, 0L)
+                + ", удалено: " + statistics.getDeletedPerDay().getOrDefault(today, 0L));
+        System.out.println("Удалено с момента запуска: " + statistics.getDeletedTotal());
+
+        List<Document> recent = documentService.getLatestUpdated(RECENT_DOCUMENTS);
+        if (!recent.isEmpty()) {
+            System.out.println("Последние изменённые документы:");
+            for (Document doc : recent) {
+                System.out.println("  " + doc.getName() + " (ID: " + doc.getId() + "), обновлен: " + doc.getUpdatedAt());
+            }
+        }
     }
 }
 
@@ -0,0 +1,135 @@
+package ru.itpark.sb.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.itpark.sb.service.EncryptionService;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение пропускной способности EncryptionService с пулом криптопримитивов
+ * и прежней реализации, создающей Cipher, MessageDigest и SecureRandom на каждый вызов.
+ * <p>
+ * Запуск: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=ru.itpark.sb.benchmark.EncryptionServiceBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class EncryptionServiceBenchmark {
+    private static final String PASSWORD = "benchmarkPassword";
+
+    @Param({"1024"})
+    private int size;
+
+    private EncryptionService pooled;
+    private byte[] plain;
+    private byte[] encrypted;
+
+    @Setup
+    public void setUp() {
+        pooled = new EncryptionService();
+        plain = new byte[size];
+        new SecureRandom().nextBytes(plain);
+        encrypted = pooled.encrypt(plain, PASSWORD);
+    }
+
+    @Benchmark
+    public String hashPasswordPooled() {
+        return pooled.hashPassword(PASSWORD);
+    }
+
+    @Benchmark
+    public String hashPasswordPerCall() throws Exception {
+        return PerCallCrypto.hashPassword(PASSWORD);
+    }
+
+    @Benchmark
+    public byte[] encryptPooled() {
+        return pooled.encrypt(plain, PASSWORD);
+    }
+
+    @Benchmark
+    public byte[] encryptPerCall() throws Exception {
+        return PerCallCrypto.encrypt(plain, PASSWORD);
+    }
+
+    @Benchmark
+    public byte[] decryptPooled() {
+        return pooled.decrypt(encrypted, PASSWORD);
+    }
+
+    @Benchmark
+    public byte[] decryptPerCall() throws Exception {
+        return PerCallCrypto.decrypt(encrypted, PASSWORD);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EncryptionServiceBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+
+    /**
+     * Прежняя реализация: поиск провайдеров и создание SecureRandom на каждый вызов
+     */
+    private static final class PerCallCrypto {
+        private static final int SALT_LENGTH = 16;
+        private static final int IV_LENGTH = 12;
+
+        static String hashPassword(String password) throws Exception {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(password.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        static byte[] encrypt(byte[] data, String password) throws Exception {
+            SecureRandom random = new SecureRandom();
+            byte[] result = new byte[SALT_LENGTH + IV_LENGTH + data.length + 16];
+            byte[] header = new byte[SALT_LENGTH + IV_LENGTH];
+            random.nextBytes(header);
+            System.arraycopy(header, 0, result, 0, header.length);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key(password, header), new GCMParameterSpec(128, header, SALT_LENGTH, IV_LENGTH));
+            cipher.doFinal(data, 0, data.length, result, header.length);
+            return result;
+        }
+
+        static byte[] decrypt(byte[] encrypted, String password) throws Exception {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key(password, encrypted), new GCMParameterSpec(128, encrypted, SALT_LENGTH, IV_LENGTH));
+            return cipher.doFinal(encrypted, SALT_LENGTH + IV_LENGTH, encrypted.length - SALT_LENGTH - IV_LENGTH);
+        }
+
+        private static SecretKey key(String password, byte[] salt) throws Exception {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt, 0, SALT_LENGTH);
+            return new SecretKeySpec(digest.digest(password.getBytes(StandardCharsets.UTF_8)), "AES");
+        }
+    }
+}
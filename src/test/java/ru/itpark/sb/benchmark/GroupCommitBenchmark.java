@@ -0,0 +1,95 @@
+package ru.itpark.sb.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.itpark.sb.domain.Document;
+import ru.itpark.sb.repository.DocumentRepository;
+import ru.itpark.sb.repository.DurabilityMode;
+import ru.itpark.sb.repository.RepositoryOptions;
+import ru.itpark.sb.service.FileStorageService;
+import ru.itpark.sb.service.StorageBackend;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Пропускная способность одновременных сохранений при разных гарантиях сохранности и окне
+ * групповой фиксации журнала: в режиме BATCH один fsync приходится на группу писателей,
+ * в режиме PER_OPERATION — на каждое сохранение.
+ * <p>
+ * Запуск: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=ru.itpark.sb.benchmark.GroupCommitBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@Threads(16)
+public class GroupCommitBenchmark {
+    @Param({"NONE", "BATCH", "PER_OPERATION"})
+    private DurabilityMode durability;
+
+    @Param({"0", "2"})
+    private int windowMillis;
+
+    private final AtomicLong ids = new AtomicLong();
+    private Path directory;
+    private FileStorageService storage;
+    private DocumentRepository repository;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("edo-commit-benchmark");
+        storage = new FileStorageService(directory.toString(), StorageBackend.SEGMENTED);
+        repository = new DocumentRepository(storage, RepositoryOptions.builder()
+                .durability(durability)
+                .groupCommitWindow(Duration.ofMillis(windowMillis))
+                .checkpointInterval(Integer.MAX_VALUE)
+                .build());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.close();
+        storage.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void save() {
+        String id = Long.toString(ids.incrementAndGet());
+        repository.save(new Document(id, "Документ " + id, new byte[256], "hash"));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(GroupCommitBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
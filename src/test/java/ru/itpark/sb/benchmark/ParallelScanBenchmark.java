@@ -0,0 +1,99 @@
+package ru.itpark.sb.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.itpark.sb.domain.Document;
+import ru.itpark.sb.repository.DocumentRepository;
+import ru.itpark.sb.repository.RepositoryOptions;
+import ru.itpark.sb.service.FileStorageService;
+import ru.itpark.sb.service.StorageBackend;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Время поиска по короткой подстроке имени (перебор без индекса триграмм) при последовательном
+ * и параллельном переборе в зависимости от числа документов. Точка, где параллельный перебор
+ * начинает выигрывать, подсказывает значение {@code RepositoryOptions.parallelScanThreshold}.
+ * <p>
+ * Запуск: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=ru.itpark.sb.benchmark.ParallelScanBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ParallelScanBenchmark {
+    private static final String QUERY = "7a";
+
+    @Param({"1000", "10000", "100000", "250000"})
+    private int size;
+
+    private Path directory;
+    private FileStorageService storage;
+    private DocumentRepository sequential;
+    private DocumentRepository parallel;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("edo-scan-benchmark");
+        storage = new FileStorageService(directory.toString(), StorageBackend.SEGMENTED);
+        sequential = new DocumentRepository(storage);
+        List<Document> documents = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            documents.add(new Document(Integer.toString(i), "Документ " + Integer.toHexString(i * 31),
+                    new byte[16], "hash"));
+        }
+        sequential.saveAll(documents);
+        parallel = new DocumentRepository(storage, RepositoryOptions.builder()
+                .parallelScanThreshold(1)
+                .build());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public List<Document> sequentialScan() {
+        return sequential.findByNameContaining(QUERY);
+    }
+
+    @Benchmark
+    public List<Document> parallelScan() {
+        return parallel.findByNameContaining(QUERY);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ParallelScanBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
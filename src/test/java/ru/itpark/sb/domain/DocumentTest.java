@@ -5,6 +5,7 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -141,5 +142,48 @@ class DocumentTest {
         assertThat(doc.getUpdatedAt()).isAfter(before);
         assertThat(doc.getUpdatedAt()).isBefore(after);
     }
-}
 
+    @Test
+    @DisplayName("Должен загружать содержимое по требованию для документа с отложенной загрузкой")
+    void shouldLoadLazyContentOnDemand() {
+        // given
+        AtomicInteger loads = new AtomicInteger();
+        Document lazy = Document.withLazyContent("1", "Lazy", "hash", id -> {
+            loads.incrementAndGet();
+            return ("content-" + id).getBytes();
+        });
+
+        // then
+        assertThat(lazy.isContentLoaded()).isFalse();
+        assertThat(loads).hasValue(0);
+        assertThat(lazy.getEncryptedContent()).isEqualTo("content-1".getBytes());
+        assertThat(loads).hasValue(1);
+
+        // when
+        lazy.setEncryptedContent("replaced".getBytes());
+
+        // then
+        assertThat(lazy.isContentLoaded()).isTrue();
+        assertThat(lazy.getEncryptedContent()).isEqualTo("replaced".getBytes());
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    @DisplayName("toString не должен загружать содержимое документа с отложенной загрузкой")
+    void shouldNotLoadLazyContentInToString() {
+        // given
+        AtomicInteger loads = new AtomicInteger();
+        Document lazy = Document.withLazyContent("1", "Lazy", "hash", id -> {
+            loads.incrementAndGet();
+            throw new IllegalStateException("Содержимое документа " + id + " не найдено на диске");
+        });
+        lazy.setContentLength(42);
+
+        // when
+        String text = lazy.toString();
+
+        // then
+        assertThat(text).contains("Lazy", "contentLength=42").doesNotContain("encryptedContent");
+        assertThat(loads).hasValue(0);
+    }
+}
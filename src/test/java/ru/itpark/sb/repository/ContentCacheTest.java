@@ -0,0 +1,163 @@
+package ru.itpark.sb.repository;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("Тесты для ContentCache")
+class ContentCacheTest {
+
+    @Test
+    @DisplayName("Должен возвращать закэшированное содержимое без повторной загрузки")
+    void shouldReturnCachedContentWithoutReloading() {
+        // given
+        ContentCache cache = new ContentCache(10_000);
+        AtomicInteger loads = new AtomicInteger();
+
+        // when
+        byte[] first = cache.get("1", id -> {
+            loads.incrementAndGet();
+            return new byte[100];
+        });
+        byte[] second = cache.get("1", id -> {
+            loads.incrementAndGet();
+            return new byte[100];
+        });
+
+        // then
+        assertThat(second).isSameAs(first);
+        assertThat(loads).hasValue(1);
+        assertThat(cache.stats().getHitCount()).isEqualTo(1);
+        assertThat(cache.stats().getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Должен соблюдать ограничение по суммарному размеру содержимого")
+    void shouldRespectWeightBudget() {
+        // given
+        ContentCache cache = new ContentCache(1_000);
+
+        // when
+        for (int i = 0; i < 100; i++) {
+            cache.put("doc-" + i, new byte[100]);
+        }
+
+        // then
+        ContentCache.Stats stats = cache.stats();
+        assertThat(stats.getWeightedSize()).isLessThanOrEqualTo(1_000);
+        assertThat(stats.getEvictionCount()).isGreaterThan(0);
+    }
+
+    @Test
+    @DisplayName("Не должен кэшировать содержимое больше всего бюджета")
+    void shouldNotCacheOversizedContent() {
+        // given
+        ContentCache cache = new ContentCache(1_000);
+
+        // when
+        cache.put("big", new byte[5_000]);
+
+        // then
+        assertThat(cache.getIfPresent("big")).isNull();
+        assertThat(cache.stats().getWeightedSize()).isZero();
+    }
+
+    @Test
+    @DisplayName("Должен сохранять часто используемые записи при однократном сканировании")
+    void shouldKeepHotEntriesDuringScan() {
+        // given
+        ContentCache cache = new ContentCache(2_000);
+        for (int i = 0; i < 10; i++) {
+            cache.put("hot-" + i, new byte[100]);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 10; i++) {
+                cache.getIfPresent("hot-" + i);
+            }
+        }
+
+        // when
+        for (int i = 0; i < 1_000; i++) {
+            cache.get("cold-" + i, id -> new byte[100]);
+        }
+
+        // then
+        int hotRetained = 0;
+        for (int i = 0; i < 10; i++) {
+            if (cache.getIfPresent("hot-" + i) != null) {
+                hotRetained++;
+            }
+        }
+        assertThat(hotRetained).isGreaterThanOrEqualTo(8);
+    }
+
+    @Test
+    @DisplayName("Отклонённый кандидат не должен вытеснять записи основной области")
+    void shouldNotEvictWhenCandidateIsRejected() {
+        // given
+        ContentCache cache = new ContentCache(1_000);
+        cache.put("cold", new byte[400]);
+        cache.put("hot", new byte[400]);
+        for (int i = 0; i < 5; i++) {
+            cache.getIfPresent("hot");
+        }
+        cache.getIfPresent("big");
+        cache.getIfPresent("big");
+
+        // when
+        cache.put("big", new byte[900]);
+
+        // then
+        assertThat(cache.getIfPresent("big")).isNull();
+        assertThat(cache.getIfPresent("cold")).isNotNull();
+        assertThat(cache.getIfPresent("hot")).isNotNull();
+        assertThat(cache.stats().getWeightedSize()).isEqualTo(800);
+    }
+
+    @Test
+    @DisplayName("Содержимое, загруженное до изменения документа, не должно попадать в кэш")
+    void shouldNotCacheContentLoadedBeforeConcurrentUpdate() {
+        // given
+        ContentCache cache = new ContentCache(1_000);
+        byte[] stale = {1};
+        byte[] fresh = {2};
+
+        // when
+        byte[] loaded = cache.get("1", id -> {
+            // Обновление документа и вытеснение новой записи, пока содержимое читается с диска
+            cache.put(id, fresh);
+            cache.invalidate(id);
+            return stale;
+        });
+
+        // then
+        assertThat(loaded).isEqualTo(stale);
+        assertThat(cache.getIfPresent("1")).isNull();
+    }
+
+    @Test
+    @DisplayName("Должен удалять содержимое при инвалидации")
+    void shouldInvalidateEntry() {
+        // given
+        ContentCache cache = new ContentCache(1_000);
+        cache.put("1", new byte[10]);
+
+        // when
+        cache.invalidate("1");
+
+        // then
+        assertThat(cache.getIfPresent("1")).isNull();
+        assertThat(cache.stats().getEntryCount()).isZero();
+    }
+
+    @Test
+    @DisplayName("Должен отклонять неположительный размер кэша")
+    void shouldRejectNonPositiveBudget() {
+        assertThatThrownBy(() -> new ContentCache(0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -4,15 +4,36 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import ru.itpark.sb.domain.Document;
 import ru.itpark.sb.service.FileStorageService;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
@@ -49,7 +70,8 @@ class DocumentRepositoryTest {
         
         // Проверяем, что файловый сервис был вызван
         verify(fileStorageService, atLeastOnce()).saveDocumentContent(anyString(), any(byte[].class));
-        verify(fileStorageService, atLeastOnce()).saveMetadata(anyString());
+        verify(fileStorageService).appendJournal(anyList());
+        verify(fileStorageService, never()).saveMetadata(anyString());
     }
 
     @Test
@@ -123,7 +145,8 @@ class DocumentRepositoryTest {
         
         // Проверяем, что файловый сервис был вызван для удаления
         verify(fileStorageService).deleteDocumentContent("1");
-        verify(fileStorageService).saveMetadata(anyString());
+        verify(fileStorageService).appendJournal(argThat(records ->
+                records.size() == 1 && records.get(0).contains("DELETE")));
     }
 
     @Test
@@ -199,6 +222,354 @@ class DocumentRepositoryTest {
         assertThat(found).isEmpty();
     }
 
+    @Test
+    @DisplayName("Поиск по имени должен учитывать переименование и удаление документов")
+    void shouldKeepNameSearchInSyncWithRenameAndDelete() {
+        // given
+        repository.save(createTestDocument("1", "Annual Report"));
+        repository.save(createTestDocument("2", "Report Draft"));
+        repository.save(createTestDocument("3", "Budget"));
+
+        // when
+        repository.save(createTestDocument("1", "Annual Summary"));
+        repository.deleteById("2");
+
+        // then
+        assertThat(repository.findByNameContaining("report")).isEmpty();
+        assertThat(repository.findByNameContaining("summ")).extracting(Document::getId).containsExactly("1");
+        assertThat(repository.findByNameContaining("u")).extracting(Document::getId).containsExactly("1", "3");
+    }
+
+    @Test
+    @DisplayName("Должен искать документы по диапазону дат создания, от новых к старым")
+    void shouldFindDocumentsByDateRangeNewestFirst() {
+        // given
+        LocalDateTime base = LocalDateTime.of(2024, 1, 1, 12, 0);
+        for (int i = 0; i < 5; i++) {
+            Document document = createTestDocument(String.valueOf(i), "Doc " + i);
+            document.setCreatedAt(base.plusDays(i));
+            repository.save(document);
+        }
+
+        // when
+        List<Document> found = repository.findByDateRange(base, base.plusDays(3));
+
+        // then
+        assertThat(found).extracting(Document::getId).containsExactly("2", "1");
+        assertThat(repository.findByDateRange(base.plusDays(3), base)).isEmpty();
+        assertThat(repository.findAll()).extracting(Document::getId).containsExactly("4", "3", "2", "1", "0");
+    }
+
+    @Test
+    @DisplayName("Должен переупорядочивать документ по дате обновления после изменения содержимого")
+    void shouldReorderByUpdatedAtAfterContentChange() {
+        // given
+        LocalDateTime base = LocalDateTime.now().minusDays(1);
+        Document first = createTestDocument("1", "First");
+        first.setUpdatedAt(base);
+        Document second = createTestDocument("2", "Second");
+        second.setUpdatedAt(base.plusHours(1));
+        repository.save(first);
+        repository.save(second);
+
+        // when
+        first.setEncryptedContent("changed".getBytes());
+        repository.save(first);
+
+        // then
+        assertThat(repository.findAllSortedByUpdatedAt()).extracting(Document::getId).containsExactly("1", "2");
+    }
+
+    @Test
+    @DisplayName("Курсорная выдача не должна сдвигаться при вставке документов между страницами")
+    void shouldPageByCursorStablyUnderInserts() {
+        // given
+        LocalDateTime base = LocalDateTime.of(2024, 1, 1, 12, 0);
+        for (int i = 0; i < 5; i++) {
+            Document document = createTestDocument(String.valueOf(i), "Doc " + i);
+            document.setCreatedAt(base.plusMinutes(i));
+            repository.save(document);
+        }
+
+        // when
+        DocumentPage first = repository.findAll(null, 2);
+        Document newest = createTestDocument("new", "Newest");
+        newest.setCreatedAt(base.plusDays(1));
+        repository.save(newest);
+        DocumentPage second = repository.findAll(first.getNextCursor(), 2);
+        DocumentPage third = repository.findAll(second.getNextCursor(), 2);
+
+        // then
+        assertThat(first.getItems()).extracting(Document::getId).containsExactly("4", "3");
+        assertThat(second.getItems()).extracting(Document::getId).containsExactly("2", "1");
+        assertThat(third.getItems()).extracting(Document::getId).containsExactly("0");
+        assertThat(third.hasNext()).isFalse();
+        assertThatThrownBy(() -> repository.findAll("not a cursor", 2))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Должен постранично выдавать результаты поиска по имени")
+    void shouldPageNameSearchResults() {
+        // given
+        for (int i = 0; i < 5; i++) {
+            repository.save(createTestDocument(String.valueOf(i), "Report " + (char) ('E' - i)));
+        }
+        repository.save(createTestDocument("x", "Budget"));
+
+        // when
+        DocumentPage first = repository.findByNameContaining("report", null, 3);
+        DocumentPage second = repository.findByNameContaining("report", first.getNextCursor(), 3);
+
+        // then
+        assertThat(first.getItems()).extracting(Document::getName).containsExactly("Report A", "Report B", "Report C");
+        assertThat(second.getItems()).extracting(Document::getName).containsExactly("Report D", "Report E");
+        assertThat(second.hasNext()).isFalse();
+    }
+
+    @Test
+    @DisplayName("Планировщик должен выбирать самый селективный индекс")
+    void shouldPlanQueryWithMostSelectiveIndex() {
+        // given
+        LocalDateTime base = LocalDateTime.of(2024, 1, 1, 12, 0);
+        for (int i = 0; i < 20; i++) {
+            Document document = createTestDocument(String.valueOf(i), i == 7 ? "Invoice 7" : "Report " + i);
+            document.setCreatedAt(base.plusDays(i));
+            repository.save(document);
+        }
+
+        // when
+        QueryPlan byName = repository.explain(DocumentQuery.builder()
+                .nameContains("invoice")
+                .createdAfter(base)
+                .build());
+        QueryPlan byRange = repository.explain(DocumentQuery.builder()
+                .nameContains("report")
+                .createdAfter(base.plusDays(15))
+                .limit(2)
+                .build());
+        QueryPlan ordered = repository.explain(DocumentQuery.builder()
+                .sortBy(DocumentQuery.SortKey.UPDATED_AT)
+                .limit(5)
+                .build());
+        QueryPlan scan = repository.explain(DocumentQuery.builder()
+                .nameContains("re")
+                .sortBy(DocumentQuery.SortKey.NAME)
+                .build());
+
+        // then
+        assertThat(byName.getAccessPath()).isEqualTo(QueryPlan.AccessPath.NAME_INDEX);
+        assertThat(byName.getEstimatedRows()).isEqualTo(1);
+        assertThat(byName.isSortRequired()).isTrue();
+        assertThat(byRange.getAccessPath()).isEqualTo(QueryPlan.AccessPath.CREATED_INDEX);
+        assertThat(byRange.getEstimatedRows()).isEqualTo(4);
+        assertThat(byRange.isLimitPushedDown()).isTrue();
+        assertThat(byRange.getResidualFilters()).hasSize(1);
+        assertThat(ordered.getAccessPath()).isEqualTo(QueryPlan.AccessPath.UPDATED_INDEX);
+        assertThat(ordered.isLimitPushedDown()).isTrue();
+        assertThat(scan.getAccessPath()).isEqualTo(QueryPlan.AccessPath.FULL_SCAN);
+        assertThat(scan.explain()).contains("FULL_SCAN");
+    }
+
+    @Test
+    @DisplayName("Должен выполнять составной запрос по имени, датам, сортировке и ограничению")
+    void shouldExecuteCompositeQuery() {
+        // given
+        LocalDateTime base = LocalDateTime.of(2024, 1, 1, 12, 0);
+        for (int i = 0; i < 10; i++) {
+            Document document = createTestDocument(String.valueOf(i), (i % 2 == 0 ? "Even " : "Odd ") + i);
+            document.setCreatedAt(base.plusDays(i));
+            document.setUpdatedAt(base.plusDays(20 - i));
+            repository.save(document);
+        }
+
+        // when
+        List<Document> newestEven = repository.query(DocumentQuery.builder()
+                .nameContains("even")
+                .createdAfter(base.plusDays(1))
+                .limit(2)
+                .build());
+        List<Document> recentlyUpdatedOdd = repository.query(DocumentQuery.builder()
+                .nameContains("odd")
+                .updatedBefore(base.plusDays(18))
+                .sortBy(DocumentQuery.SortKey.UPDATED_AT)
+                .build());
+        List<Document> byName = repository.query(DocumentQuery.builder()
+                .createdBefore(base.plusDays(3))
+                .sortBy(DocumentQuery.SortKey.NAME)
+                .build());
+
+        // then
+        assertThat(newestEven).extracting(Document::getId).containsExactly("8", "6");
+        assertThat(recentlyUpdatedOdd).extracting(Document::getId).containsExactly("3", "5", "7", "9");
+        assertThat(byName).extracting(Document::getName).containsExactly("Even 0", "Even 2", "Odd 1");
+    }
+
+    @Test
+    @DisplayName("Должен возвращать k последних созданных и изменённых документов")
+    void shouldReturnLatestDocuments() {
+        // given
+        LocalDateTime base = LocalDateTime.of(2024, 1, 1, 12, 0);
+        for (int i = 0; i < 10; i++) {
+            Document document = createTestDocument(String.valueOf(i), "Doc " + i);
+            document.setCreatedAt(base.plusDays(i));
+            document.setUpdatedAt(base.plusDays(20 - i));
+            repository.save(document);
+        }
+
+        // when / then
+        assertThat(repository.latestCreated(3)).extracting(Document::getId).containsExactly("9", "8", "7");
+        assertThat(repository.latestUpdated(2)).extracting(Document::getId).containsExactly("0", "1");
+        assertThat(repository.latestCreated(50)).hasSize(10);
+    }
+
+    @Test
+    @DisplayName("Параллельный перебор должен давать те же результаты, что и последовательный")
+    void shouldReturnSameResultsWithParallelScan() {
+        // given
+        DocumentRepository parallel = new DocumentRepository(fileStorageService, RepositoryOptions.builder()
+                .parallelScanThreshold(1)
+                .parallelScanParallelism(4)
+                .build());
+        for (int i = 0; i < 200; i++) {
+            Document document = createTestDocument(String.valueOf(i), "Doc " + (i % 2 == 0 ? "ab " : "") + i);
+            repository.save(document);
+            parallel.save(document);
+        }
+        DocumentQuery query = DocumentQuery.builder()
+                .nameContains("ab")
+                .sortBy(DocumentQuery.SortKey.NAME)
+                .limit(30)
+                .build();
+
+        // when / then
+        assertThat(parallel.explain(query).getAccessPath()).isEqualTo(QueryPlan.AccessPath.PARALLEL_SCAN);
+        assertThat(parallel.query(query)).containsExactlyElementsOf(repository.query(query));
+        assertThat(parallel.findByNameContaining("ab")).containsExactlyElementsOf(repository.findByNameContaining("ab"));
+    }
+
+    @Test
+    @DisplayName("Должен искать документы по началу имени с учётом переименования")
+    void shouldFindDocumentsByNamePrefix() {
+        // given
+        repository.save(createTestDocument("1", "Report B"));
+        repository.save(createTestDocument("2", "report A"));
+        repository.save(createTestDocument("3", "Summary"));
+        repository.save(createTestDocument("4", "Reporting"));
+
+        // when
+        repository.save(createTestDocument("3", "Report C"));
+        repository.deleteById("4");
+
+        // then
+        assertThat(repository.findByNamePrefix("REP", 10)).extracting(Document::getId).containsExactly("2", "1", "3");
+        assertThat(repository.findByNamePrefix("rep", 2)).extracting(Document::getId).containsExactly("2", "1");
+        assertThat(repository.findByNamePrefix("sum", 10)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Поиск по началу имени должен упорядочивать имена так же, как остальные выборки по имени")
+    void shouldOrderPrefixMatchesByCollation() {
+        // given
+        repository.save(createTestDocument("1", "ель"));
+        repository.save(createTestDocument("2", "Еловый"));
+        repository.save(createTestDocument("3", "елка"));
+        repository.save(createTestDocument("4", "Елка"));
+        repository.save(createTestDocument("5", "Елёк"));
+        repository.save(createTestDocument("6", "Ёж"));
+
+        // when
+        List<Document> matches = repository.findByNamePrefix("ЕЛ", 10);
+
+        // then
+        assertThat(matches).extracting(Document::getId).containsExactly("5", "3", "4", "2", "1");
+        assertThat(repository.findByNamePrefix("ел", 2)).extracting(Document::getId).containsExactly("5", "3");
+        assertThat(repository.findByNamePrefix("", 10))
+                .containsExactlyElementsOf(repository.streamAll(DocumentQuery.SortKey.NAME).toList());
+    }
+
+    @Test
+    @DisplayName("Статистика должна обновляться при создании, изменении, удалении и откате пакета")
+    void shouldMaintainStatisticsIncrementally() {
+        // given
+        Document small = createTestDocument("1", "Small");
+        Document large = new Document("2", "Large", new byte[20_000], "hash");
+        repository.save(small);
+        repository.save(large);
+
+        // when
+        small.setEncryptedContent(new byte[2_000]);
+        repository.save(small);
+        repository.deleteById("2");
+        doThrow(new RuntimeException("disk full")).when(fileStorageService).appendJournal(anyList());
+        assertThatThrownBy(() -> repository.saveAll(List.of(createTestDocument("3", "Rolled back"))))
+                .isInstanceOf(RuntimeException.class);
+
+        // then
+        RepositoryStatistics.Snapshot statistics = repository.getStatistics();
+        LocalDate today = LocalDate.now();
+        assertThat(statistics.getDocumentCount()).isEqualTo(1);
+        assertThat(repository.count()).isEqualTo(1);
+        assertThat(statistics.getTotalContentBytes()).isEqualTo(2_000);
+        assertThat(statistics.getSizeHistogram()).containsEntry("1–16 КБ", 1L).containsEntry("16–256 КБ", 0L);
+        assertThat(statistics.getCreatedPerDay()).containsEntry(today, 2L);
+        assertThat(statistics.getUpdatedPerDay()).containsEntry(today, 1L);
+        assertThat(statistics.getDeletedPerDay()).containsEntry(today, 1L);
+        assertThat(statistics.getDeletedTotal()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Ленивые потоки должны выдавать документы в порядке индекса и допускать короткое замыкание")
+    void shouldStreamDocumentsLazily() {
+        // given
+        LocalDateTime base = LocalDateTime.of(2024, 1, 1, 12, 0);
+        for (int i = 0; i < 100; i++) {
+            Document document = createTestDocument(String.format("%03d", i), (i % 3 == 0 ? "Fizz " : "Doc ") + i);
+            document.setCreatedAt(base.plusMinutes(i));
+            repository.save(document);
+        }
+
+        // when
+        List<String> newest = repository.streamAll(DocumentQuery.SortKey.CREATED_AT)
+                .limit(3)
+                .map(Document::getId)
+                .toList();
+        List<Document> inParallel = repository.streamAll(DocumentQuery.SortKey.CREATED_AT)
+                .parallel()
+                .toList();
+        Optional<Document> firstByName = repository.streamAll(DocumentQuery.SortKey.NAME).findFirst();
+        long fizz = repository.streamByName("fizz").count();
+
+        // then
+        assertThat(newest).containsExactly("099", "098", "097");
+        assertThat(inParallel).hasSize(100).isEqualTo(repository.findAll());
+        assertThat(firstByName).get().extracting(Document::getName).isEqualTo("Doc 1");
+        assertThat(fizz).isEqualTo(34);
+    }
+
+    @Test
+    @DisplayName("Ленивый поток не должен ломаться при изменениях во время обхода")
+    void shouldTolerateConcurrentModificationsWhileStreaming() {
+        // given
+        for (int i = 0; i < 50; i++) {
+            repository.save(createTestDocument(String.valueOf(i), "Doc " + i));
+        }
+
+        // when
+        Iterator<Document> iterator = repository.streamAll(DocumentQuery.SortKey.UPDATED_AT).iterator();
+        iterator.next();
+        repository.deleteById("10");
+        repository.save(createTestDocument("new", "New"));
+        long remaining = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            remaining++;
+        }
+
+        // then
+        assertThat(remaining).isBetween(48L, 50L);
+    }
+
     @Test
     @DisplayName("Должен возвращать правильное количество документов")
     void shouldReturnCorrectCount() {
@@ -232,6 +603,575 @@ class DocumentRepositoryTest {
         assertThat(repository.count()).isEqualTo(1);
     }
 
+    @Test
+    @DisplayName("Должен восстанавливать документы из снимка и журнала метаданных")
+    void shouldReplayMetadataJournalOnStartup() {
+        // given
+        FileStorageService storage = mock(FileStorageService.class);
+        when(storage.loadMetadata()).thenReturn("[{\"id\":\"1\",\"name\":\"Old\",\"passwordHash\":\"h\","
+                + "\"createdAt\":\"2024-01-01T10:00\",\"updatedAt\":\"2024-01-01T10:00\"}]");
+        when(storage.loadJournal()).thenReturn(List.of(
+                "{\"op\":\"PUT\",\"id\":\"1\",\"metadata\":{\"id\":\"1\",\"name\":\"Renamed\",\"passwordHash\":\"h\","
+                        + "\"createdAt\":\"2024-01-01T10:00\",\"updatedAt\":\"2024-01-02T10:00\"}}",
+                "{\"op\":\"PUT\",\"id\":\"2\",\"metadata\":{\"id\":\"2\",\"name\":\"Second\",\"passwordHash\":\"h\","
+                        + "\"createdAt\":\"2024-01-03T10:00\",\"updatedAt\":\"2024-01-03T10:00\"}}",
+                "{\"op\":\"DELETE\",\"id\":\"2\"}",
+                "{\"op\":\"PUT\",\"id\":\"3\",\"meta"
+        ));
+        when(storage.loadDocumentContent(anyString())).thenReturn(Optional.of("encrypted".getBytes()));
+
+        // when
+        DocumentRepository restored = new DocumentRepository(storage);
+
+        // then
+        assertThat(restored.count()).isEqualTo(1);
+        assertThat(restored.findById("1")).get()
+                .extracting(Document::getName)
+                .isEqualTo("Renamed");
+        // Журнал сворачивается в снимок после воспроизведения
+        verify(storage).saveMetadata(argThat(json -> json.contains("Renamed") && !json.contains("Second")));
+        verify(storage).clearJournal();
+    }
+
+    @Test
+    @DisplayName("Повреждённый снимок метаданных должен прерывать запуск, а не давать пустой репозиторий")
+    void shouldFailStartupOnCorruptedMetadataSnapshot() {
+        // given
+        FileStorageService storage = mock(FileStorageService.class);
+        when(storage.loadMetadata()).thenReturn("[{\"id\":\"1\",\"name\":\"Обре");
+
+        // when / then
+        assertThatThrownBy(() -> new DocumentRepository(storage))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageContaining("Снимок метаданных metadata.json повреждён");
+        verify(storage, never()).saveMetadata(anyString());
+        verify(storage, never()).clearJournal();
+    }
+
+    @Test
+    @DisplayName("Контрольная точка должна атомарно заменять снимок и только потом очищать журнал")
+    void shouldReplaceSnapshotAtomicallyBeforeClearingJournal(@TempDir Path directory) throws Exception {
+        // given
+        FileStorageService storage = new FileStorageService(directory.toString());
+        DocumentRepository durable = new DocumentRepository(storage, RepositoryOptions.builder().checkpointInterval(2).build());
+        durable.save(createTestDocument("1", "Первый"));
+
+        // when
+        durable.save(createTestDocument("2", "Второй"));
+        durable.close();
+
+        // then
+        assertThat(Files.readString(directory.resolve("metadata.json"))).contains("Первый", "Второй");
+        assertThat(directory.resolve("metadata.json.tmp")).doesNotExist();
+        assertThat(storage.loadJournal()).isEmpty();
+        assertThat(new DocumentRepository(storage).count()).isEqualTo(2);
+        storage.close();
+    }
+
+    @Test
+    @DisplayName("Оборванная запись в конце журнала должна отрезаться до следующей дозаписи")
+    void shouldTruncateTornJournalTailBeforeAppending(@TempDir Path directory) throws Exception {
+        // given
+        FileStorageService storage = new FileStorageService(directory.toString());
+        Files.writeString(directory.resolve("metadata.journal"), "{\"op\":\"PUT\",\"id\":\"x\",\"meta");
+        DocumentRepository afterCrash = new DocumentRepository(storage);
+
+        // when
+        afterCrash.save(createTestDocument("2", "Второй"));
+        afterCrash.close();
+        DocumentRepository restarted = new DocumentRepository(storage);
+
+        // then
+        assertThat(restarted.findById("2")).get()
+                .extracting(Document::getName)
+                .isEqualTo("Второй");
+        restarted.close();
+        storage.close();
+    }
+
+    @Test
+    @DisplayName("Запись журнала, оборванная посреди кириллического символа, не должна прерывать запуск")
+    void shouldRecoverJournalTornInsideMultibyteCharacter(@TempDir Path directory) throws Exception {
+        // given
+        FileStorageService storage = new FileStorageService(directory.toString());
+        DocumentRepository beforeCrash = new DocumentRepository(storage);
+        beforeCrash.save(createTestDocument("1", "Первый"));
+        beforeCrash.close();
+        byte[] torn = "{\"op\":\"PUT\",\"id\":\"2\",\"metadata\":{\"id\":\"2\",\"name\":\"Д".getBytes(StandardCharsets.UTF_8);
+        Files.write(directory.resolve("metadata.journal"), Arrays.copyOf(torn, torn.length - 1), StandardOpenOption.APPEND);
+
+        // when
+        DocumentRepository restarted = new DocumentRepository(storage);
+
+        // then
+        assertThat(restarted.count()).isEqualTo(1);
+        assertThat(restarted.findById("1")).isPresent();
+        assertThat(storage.loadJournal()).allSatisfy(line -> assertThat(line).doesNotContain("\"id\":\"2\""));
+        restarted.close();
+        storage.close();
+    }
+
+    @Test
+    @DisplayName("Должен сворачивать журнал в снимок по достижении интервала контрольной точки")
+    void shouldCheckpointJournalAfterInterval() {
+        // given
+        DocumentRepository checkpointing = new DocumentRepository(fileStorageService,
+                RepositoryOptions.builder().checkpointInterval(3).build());
+
+        // when
+        checkpointing.save(createTestDocument("1", "Doc 1"));
+        checkpointing.save(createTestDocument("2", "Doc 2"));
+
+        // then
+        verify(fileStorageService, never()).saveMetadata(anyString());
+
+        // when
+        checkpointing.deleteById("1");
+
+        // then
+        verify(fileStorageService, times(3)).appendJournal(anyList());
+        verify(fileStorageService).saveMetadata(argThat(json -> json.contains("Doc 2") && !json.contains("Doc 1")));
+        verify(fileStorageService).clearJournal();
+    }
+
+    @Test
+    @DisplayName("Сбой контрольной точки не должен превращать зафиксированные записи в ошибку сохранения")
+    void shouldAcknowledgeDurableWritesWhenCheckpointFails() {
+        // given
+        doThrow(new RuntimeException("диск переполнен")).when(fileStorageService).saveMetadata(anyString());
+        DocumentRepository checkpointing = new DocumentRepository(fileStorageService,
+                RepositoryOptions.builder().checkpointInterval(1).build());
+
+        // when
+        checkpointing.save(createTestDocument("1", "Doc 1"));
+        checkpointing.saveAll(List.of(createTestDocument("2", "Doc 2"), createTestDocument("3", "Doc 3")));
+        checkpointing.deleteById("1");
+
+        // then
+        assertThat(checkpointing.findById("1")).isEmpty();
+        assertThat(checkpointing.findById("2")).isPresent();
+        assertThat(checkpointing.findById("3")).isPresent();
+        verify(fileStorageService, times(3)).appendJournal(anyList());
+        verify(fileStorageService, atLeastOnce()).saveMetadata(anyString());
+        verify(fileStorageService, never()).clearJournal();
+        checkpointing.close();
+    }
+
+    @Test
+    @DisplayName("Должен загружать только метаданные при отложенной загрузке содержимого")
+    void shouldLoadOnlyMetadataInLazyMode() {
+        // given
+        FileStorageService storage = mock(FileStorageService.class);
+        when(storage.loadMetadata()).thenReturn("[" + metadataJson("1", "First", 9) + "," + metadataJson("2", "Missing", 9) + "]");
+        when(storage.hasDocumentContent("1")).thenReturn(true);
+        when(storage.hasDocumentContent("2")).thenReturn(false);
+
+        // when
+        DocumentRepository lazy = new DocumentRepository(storage,
+                RepositoryOptions.builder().lazyContent(true).build());
+
+        // then
+        assertThat(lazy.count()).isEqualTo(1);
+        verify(storage, never()).loadDocumentContent(anyString());
+
+        // when
+        when(storage.loadDocumentContent("1")).thenReturn(Optional.of("encrypted".getBytes()));
+        byte[] content = lazy.findById("1").orElseThrow().getEncryptedContent();
+
+        // then
+        assertThat(content).isEqualTo("encrypted".getBytes());
+        verify(storage).loadDocumentContent("1");
+    }
+
+    @Test
+    @DisplayName("Размер содержимого из старых метаданных должен браться из хранилища без чтения содержимого")
+    void shouldTakeLegacyContentLengthFromStorage() {
+        // given
+        FileStorageService storage = mock(FileStorageService.class);
+        when(storage.loadMetadata()).thenReturn("[" + metadataJson("1", "Legacy") + "," + metadataJson("2", "Missing") + "]");
+        when(storage.getDocumentContentSize("1")).thenReturn(OptionalLong.of(42));
+        when(storage.getDocumentContentSize("2")).thenReturn(OptionalLong.empty());
+
+        // when
+        DocumentRepository lazy = new DocumentRepository(storage,
+                RepositoryOptions.builder().lazyContent(true).build());
+
+        // then
+        assertThat(lazy.count()).isEqualTo(1);
+        assertThat(lazy.getStatistics().getTotalContentBytes()).isEqualTo(42);
+        verify(storage, never()).loadDocumentContent(anyString());
+        // Измеренные размеры сохраняются в снимок, чтобы не определять их при каждом запуске
+        verify(storage).saveMetadata(contains("\"contentLength\":42"));
+    }
+
+    @Test
+    @DisplayName("Не должен перезаписывать незагруженное содержимое при сохранении метаданных")
+    void shouldNotRewriteUnloadedContent() {
+        // given
+        Document lazy = Document.withLazyContent("1", "Lazy", "hash", id -> "encrypted".getBytes());
+
+        // when
+        lazy.setName("Renamed");
+        repository.save(lazy);
+
+        // then
+        verify(fileStorageService, never()).saveDocumentContent(anyString(), any(byte[].class));
+        verify(fileStorageService).appendJournal(anyList());
+    }
+
+    @Test
+    @DisplayName("Должен хранить содержимое в кэше и читать с диска после вытеснения")
+    void shouldServeContentFromCacheAndFallBackToDisk() {
+        // given
+        DocumentRepository cached = new DocumentRepository(fileStorageService,
+                RepositoryOptions.builder().contentCacheBytes(1_000).build());
+        Document document = new Document("1", "Cached", new byte[100], "hash");
+
+        // when
+        cached.save(document);
+
+        // then
+        assertThat(document.isContentLoaded()).isFalse();
+        assertThat(cached.findById("1").orElseThrow().getEncryptedContent()).hasSize(100);
+        verify(fileStorageService, never()).loadDocumentContent(anyString());
+        assertThat(cached.getContentCacheStats()).get()
+                .extracting(ContentCache.Stats::getHitCount)
+                .isEqualTo(1L);
+
+        // when
+        Document notAdmitted = new Document("2", "Cold", new byte[950], "hash");
+        cached.save(notAdmitted);
+        when(fileStorageService.loadDocumentContent("2")).thenReturn(Optional.of(new byte[950]));
+
+        // then
+        assertThat(notAdmitted.getEncryptedContent()).hasSize(950);
+        verify(fileStorageService).loadDocumentContent("2");
+        assertThat(cached.getContentCacheStats()).get()
+                .extracting(ContentCache.Stats::getWeightedSize)
+                .isEqualTo(100L);
+    }
+
+    @Test
+    @DisplayName("Параллельный прогрев должен давать тот же результат, что и последовательная загрузка")
+    void shouldWarmUpInParallelWithSameResultAsSequentialLoad() {
+        // given
+        FileStorageService storage = mock(FileStorageService.class);
+        StringBuilder metadata = new StringBuilder("[");
+        for (int i = 0; i < 200; i++) {
+            metadata.append(i == 0 ? "" : ",").append(metadataJson(String.valueOf(i), "Doc " + i));
+        }
+        when(storage.loadMetadata()).thenReturn(metadata.append("]").toString());
+
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(storage.loadDocumentContent(anyString())).thenAnswer(invocation -> {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            try {
+                Thread.sleep(1);
+                String id = invocation.getArgument(0);
+                // Документы с ID, кратным 10, не имеют файла содержимого
+                return Integer.parseInt(id) % 10 == 0 ? Optional.empty() : Optional.of(id.getBytes());
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        });
+
+        // when
+        DocumentRepository sequential = new DocumentRepository(storage);
+        DocumentRepository parallel = new DocumentRepository(storage,
+                RepositoryOptions.builder().warmupConcurrency(8).build());
+
+        // then
+        assertThat(parallel.count()).isEqualTo(180).isEqualTo(sequential.count());
+        assertThat(parallel.findAll()).containsExactlyInAnyOrderElementsOf(sequential.findAll());
+        assertThat(parallel.findById("7").orElseThrow().getEncryptedContent()).isEqualTo("7".getBytes());
+        assertThat(parallel.existsById("10")).isFalse();
+        assertThat(maxInFlight.get()).isLessThanOrEqualTo(8);
+    }
+
+    @Test
+    @DisplayName("Должен сохранять пакет документов одной записью метаданных")
+    void shouldSaveBatchWithSingleMetadataFlush() {
+        // given
+        List<Document> batch = List.of(
+                createTestDocument("1", "Doc 1"),
+                createTestDocument("2", "Doc 2"),
+                createTestDocument("3", "Doc 3"));
+
+        // when
+        repository.saveAll(batch);
+
+        // then
+        assertThat(repository.count()).isEqualTo(3);
+        verify(fileStorageService, times(3)).saveDocumentContent(anyString(), any(byte[].class));
+        verify(fileStorageService).appendJournal(argThat(records -> records.size() == 3));
+        verify(fileStorageService, never()).saveMetadata(anyString());
+    }
+
+    @Test
+    @DisplayName("Должен откатывать пакет целиком при ошибке записи метаданных")
+    void shouldRollBackBatchWhenMetadataWriteFails() {
+        // given
+        Document existing = createTestDocument("1", "Original");
+        repository.save(existing);
+        doThrow(new RuntimeException("disk full")).when(fileStorageService).appendJournal(anyList());
+
+        // when & then
+        assertThatThrownBy(() -> repository.saveAll(List.of(
+                createTestDocument("1", "Replaced"),
+                createTestDocument("2", "New"))))
+                .hasMessage("disk full");
+        assertThat(repository.count()).isEqualTo(1);
+        assertThat(repository.findById("1")).containsSame(existing);
+        assertThat(repository.existsById("2")).isFalse();
+    }
+
+    @Test
+    @DisplayName("Контрольная точка не должна сохранять пакет, который ещё может откатиться")
+    void shouldNotCheckpointBatchBeforeItCommits() throws Exception {
+        // given
+        CountDownLatch appending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            appending.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            throw new RuntimeException("disk full");
+        }).when(fileStorageService).appendJournal(anyList());
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+            // when
+            Future<?> batch = executor.submit(() -> repository.saveAll(List.of(createTestDocument("1", "Пакетный"))));
+            assertThat(appending.await(5, TimeUnit.SECONDS)).isTrue();
+            Future<?> checkpoint = executor.submit(repository::checkpoint);
+            Thread.sleep(100);
+            release.countDown();
+
+            // then
+            assertThatThrownBy(() -> batch.get(5, TimeUnit.SECONDS)).hasRootCauseMessage("disk full");
+            checkpoint.get(5, TimeUnit.SECONDS);
+        }
+        verify(fileStorageService).saveMetadata(argThat(json -> !json.contains("Пакетный")));
+        assertThat(repository.existsById("1")).isFalse();
+    }
+
+    @Test
+    @DisplayName("Условное сохранение должно проходить только при неизменной версии")
+    void shouldCompareAndSaveByVersion() {
+        // given
+        repository.save(createTestDocument("1", "Original"));
+        repository.save(createTestDocument("1", "Saved again"));
+        Document stored = repository.findById("1").orElseThrow();
+        Document first = stored.copy();
+        Document second = stored.copy();
+
+        // when
+        first.setName("First writer");
+        SaveResult firstResult = repository.compareAndSave(first, stored.getVersion());
+        second.setName("Second writer");
+        SaveResult secondResult = repository.compareAndSave(second, stored.getVersion());
+        SaveResult missing = repository.compareAndSave(createTestDocument("2", "Missing"), 0);
+
+        // then
+        assertThat(stored.getVersion()).isEqualTo(1);
+        assertThat(stored.getName()).isEqualTo("Saved again");
+        assertThat(firstResult.isSaved()).isTrue();
+        assertThat(firstResult.getVersion()).isEqualTo(2);
+        assertThat(secondResult.isConflict()).isTrue();
+        assertThat(secondResult.getVersion()).isEqualTo(2);
+        assertThat(missing.getVersion()).isEqualTo(SaveResult.ABSENT);
+        assertThat(repository.findById("1")).get()
+                .extracting(Document::getName, Document::getVersion)
+                .containsExactly("First writer", 2L);
+        assertThat(repository.findByNameContaining("Second writer")).isEmpty();
+        verify(fileStorageService).appendJournal(argThat(lines -> lines.stream()
+                .anyMatch(line -> line.contains("\"version\":2"))));
+    }
+
+    @Test
+    @DisplayName("Версия должна восстанавливаться из метаданных, а в старых метаданных считаться нулевой")
+    void shouldLoadVersionFromMetadata() {
+        // given
+        FileStorageService storage = mock(FileStorageService.class);
+        when(storage.loadMetadata()).thenReturn("[" + metadataJson("1", "Legacy") + ","
+                + metadataJson("2", "Versioned").replace("}", ",\"version\":7}") + "]");
+        when(storage.loadDocumentContent(anyString())).thenReturn(Optional.of("encrypted".getBytes()));
+
+        // when
+        DocumentRepository restored = new DocumentRepository(storage);
+        Document versioned = restored.findById("2").orElseThrow();
+        versioned.setName("Versioned again");
+        restored.save(versioned);
+
+        // then
+        assertThat(restored.findById("1")).get().extracting(Document::getVersion).isEqualTo(0L);
+        assertThat(versioned.getVersion()).isEqualTo(8);
+    }
+
+    @Test
+    @DisplayName("Одновременные сохранения должны фиксироваться группой с одним fsync журнала на группу")
+    void shouldGroupCommitConcurrentSavesWithBatchFsync() throws Exception {
+        // given
+        FileStorageService storage = mock(FileStorageService.class);
+        when(storage.loadMetadata()).thenReturn("[]");
+        DocumentRepository grouped = new DocumentRepository(storage, RepositoryOptions.builder()
+                .durability(DurabilityMode.BATCH)
+                .groupCommitWindow(Duration.ofMillis(200))
+                .build());
+
+        // when
+        saveConcurrently(grouped, 6);
+
+        // then
+        ArgumentCaptor<List<String>> appended = ArgumentCaptor.captor();
+        verify(storage, atLeastOnce()).appendJournal(appended.capture());
+        assertThat(appended.getAllValues()).hasSizeLessThan(6);
+        assertThat(appended.getAllValues().stream().mapToInt(List::size).sum()).isEqualTo(6);
+        verify(storage, times(appended.getAllValues().size())).syncJournal();
+        verify(storage, times(appended.getAllValues().size())).syncDocumentContent(anyCollection());
+        grouped.close();
+    }
+
+    @Test
+    @DisplayName("В режиме PER_OPERATION каждое изменение группы должно сбрасываться на диск отдельно")
+    void shouldFsyncEachOperationInPerOperationMode() throws Exception {
+        // given
+        FileStorageService storage = mock(FileStorageService.class);
+        when(storage.loadMetadata()).thenReturn("[]");
+        DocumentRepository durable = new DocumentRepository(storage, RepositoryOptions.builder()
+                .durability(DurabilityMode.PER_OPERATION)
+                .groupCommitWindow(Duration.ofMillis(200))
+                .build());
+
+        // when
+        saveConcurrently(durable, 4);
+        durable.close();
+
+        // then
+        verify(storage, times(4)).appendJournal(argThat(lines -> lines.size() == 1));
+        verify(storage, times(4)).syncJournal();
+        verify(storage, times(4)).syncDocumentContent(argThat(ids -> ids.size() == 1));
+        assertThatThrownBy(() -> durable.save(createTestDocument("late", "После закрытия")))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    @DisplayName("При отложенной записи изменения должны сразу быть видны в памяти, а на диск попадать после закрытия")
+    void shouldApplyChangesInMemoryAndWriteBehindUntilClose() throws Exception {
+        // given
+        FileStorageService storage = mock(FileStorageService.class);
+        when(storage.loadMetadata()).thenReturn("[]");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(storage).saveDocumentContent(anyString(), any(byte[].class));
+        DocumentRepository writeBehind = new DocumentRepository(storage, RepositoryOptions.builder()
+                .writeBehind(true)
+                .contentCacheBytes(1_000)
+                .build());
+        writeBehind.save(createTestDocument("blocker", "Первый"));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // when
+        writeBehind.save(new Document("1", "Черновик", "v1".getBytes(), "hash"));
+        writeBehind.save(new Document("1", "Итог", "v2".getBytes(), "hash"));
+        writeBehind.save(createTestDocument("2", "Удаляемый"));
+        writeBehind.deleteById("2");
+
+        // then
+        Document found = writeBehind.findById("1").orElseThrow();
+        assertThat(found.getName()).isEqualTo("Итог");
+        assertThat(found.getVersion()).isEqualTo(1);
+        assertThat(found.getEncryptedContent()).asString().isEqualTo("v2");
+        assertThat(writeBehind.findById("2")).isEmpty();
+        assertThat(writeBehind.getWriteBehindStats()).get()
+                .satisfies(stats -> {
+                    assertThat(stats.getQueueDepth()).isEqualTo(3);
+                    assertThat(stats.getCoalescedCount()).isEqualTo(2);
+                });
+        verify(storage, never()).appendJournal(anyList());
+
+        // when
+        release.countDown();
+        writeBehind.close();
+
+        // then
+        verify(storage).saveDocumentContent("1", "v2".getBytes());
+        verify(storage, never()).saveDocumentContent("1", "v1".getBytes());
+        verify(storage, never()).saveDocumentContent(eq("2"), any(byte[].class));
+        verify(storage).deleteDocumentContent("2");
+        assertThat(writeBehind.getWriteBehindStats()).get()
+                .extracting(WriteBehindQueue.Stats::getQueueDepth)
+                .isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("Отклонённое переполненной очередью сохранение должно откатываться в памяти")
+    void shouldRollBackSaveRejectedByFullWriteBehindQueue() throws Exception {
+        // given
+        FileStorageService storage = mock(FileStorageService.class);
+        when(storage.loadMetadata()).thenReturn("[]");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(storage).saveDocumentContent(anyString(), any(byte[].class));
+        DocumentRepository writeBehind = new DocumentRepository(storage, RepositoryOptions.builder()
+                .writeBehind(true)
+                .writeBehindCapacity(1)
+                .writeBehindOverflow(OverflowPolicy.REJECT)
+                .build());
+        writeBehind.save(createTestDocument("1", "Исходный"));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // when / then
+        assertThatThrownBy(() -> writeBehind.save(createTestDocument("2", "Лишний")))
+                .isInstanceOf(RejectedExecutionException.class);
+        assertThatThrownBy(() -> writeBehind.save(createTestDocument("1", "Изменённый")))
+                .isInstanceOf(RejectedExecutionException.class);
+        assertThat(writeBehind.findById("2")).isEmpty();
+        Document original = writeBehind.findById("1").orElseThrow();
+        assertThat(original.getName()).isEqualTo("Исходный");
+        assertThat(original.getVersion()).isZero();
+        assertThat(writeBehind.getStatistics().getDocumentCount()).isEqualTo(1);
+
+        release.countDown();
+        writeBehind.close();
+    }
+
+    private void saveConcurrently(DocumentRepository target, int writers) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> saves = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(writers)) {
+            for (int i = 0; i < writers; i++) {
+                Document document = createTestDocument(String.valueOf(i), "Doc " + i);
+                saves.add(executor.submit(() -> {
+                    start.await();
+                    target.save(document);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> save : saves) {
+                save.get(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private String metadataJson(String id, String name) {
+        return "{\"id\":\"" + id + "\",\"name\":\"" + name + "\",\"passwordHash\":\"h\","
+                + "\"createdAt\":\"2024-01-01T10:00\",\"updatedAt\":\"2024-01-01T10:00\"}";
+    }
+
+    private String metadataJson(String id, String name, long contentLength) {
+        return metadataJson(id, name).replace("}", ",\"contentLength\":" + contentLength + "}");
+    }
+
     private Document createTestDocument(String id, String name) {
         return new Document(id, name, "encrypted".getBytes(), "passwordHash");
     }
@@ -0,0 +1,61 @@
+package ru.itpark.sb.repository;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("Тесты для GroupCommitWriter")
+class GroupCommitWriterTest {
+
+    @Test
+    @DisplayName("Записи, пришедшие в пределах окна, должны фиксироваться одной группой не больше максимального размера")
+    void shouldBatchSubmissionsWithinWindowUpToMaxBatch() throws Exception {
+        // given
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        GroupCommitWriter<String> writer = new GroupCommitWriter<>(batch -> batchSizes.add(batch.size()),
+                Duration.ofMillis(300), 4);
+        List<CompletableFuture<Void>> commits = new ArrayList<>();
+
+        // when
+        for (int i = 0; i < 6; i++) {
+            commits.add(writer.submit("record-" + i, List.of()));
+        }
+        for (CompletableFuture<Void> commit : commits) {
+            commit.get(5, TimeUnit.SECONDS);
+        }
+        writer.close();
+
+        // then
+        assertThat(batchSizes).containsExactly(4, 2);
+    }
+
+    @Test
+    @DisplayName("Ошибка записи должна завершать future всей группы, а после закрытия записи должны отклоняться")
+    void shouldFailWholeBatchAndRejectAfterClose() {
+        // given
+        GroupCommitWriter<String> writer = new GroupCommitWriter<>(batch -> {
+            throw new IllegalStateException("диск недоступен");
+        }, Duration.ofMillis(200), 10);
+
+        // when
+        CompletableFuture<Void> first = writer.submit("a", List.of());
+        CompletableFuture<Void> second = writer.submit("b", List.of());
+        writer.close();
+
+        // then
+        assertThatThrownBy(first::join).hasRootCauseMessage("диск недоступен");
+        assertThatThrownBy(second::join).hasRootCauseMessage("диск недоступен");
+        assertThatThrownBy(() -> writer.submit("c", List.of()).join())
+                .hasCauseInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("закрыт");
+    }
+}
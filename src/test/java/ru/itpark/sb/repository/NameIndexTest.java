@@ -0,0 +1,58 @@
+package ru.itpark.sb.repository;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("Тесты для NameIndex")
+class NameIndexTest {
+
+    private final NameIndex index = new NameIndex();
+
+    @Test
+    @DisplayName("Должен возвращать кандидатов, содержащих все триграммы запроса")
+    void shouldIntersectPostingLists() {
+        // given
+        index.add("1", "Договор поставки");
+        index.add("2", "Договор аренды");
+        index.add("3", "Акт сверки");
+
+        // when / then
+        assertThat(index.candidates("договор")).hasValueSatisfying(ids -> assertThat(ids).containsExactlyInAnyOrder("1", "2"));
+        assertThat(index.candidates("аренд")).hasValueSatisfying(ids -> assertThat(ids).containsExactly("2"));
+        assertThat(index.candidates("счёт")).hasValueSatisfying(ids -> assertThat(ids).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Не должен сужать поиск для запросов короче триграммы")
+    void shouldNotNarrowShortQueries() {
+        // given
+        index.add("1", "Акт");
+
+        // when / then
+        assertThat(index.candidates("ак")).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Должен переиндексировать документ при смене имени и удалять его из индекса")
+    void shouldReindexOnRenameAndRemove() {
+        // given
+        index.add("1", "Old Name");
+
+        // when
+        index.add("1", "New Title");
+
+        // then
+        assertThat(index.candidates("old")).hasValueSatisfying(ids -> assertThat(ids).isEmpty());
+        assertThat(index.candidates("title")).hasValueSatisfying(ids -> assertThat(ids).containsExactly("1"));
+        assertThat(index.normalizedName("1")).isEqualTo("new title");
+
+        // when
+        index.remove("1");
+
+        // then
+        assertThat(index.candidates("title")).hasValueSatisfying(ids -> assertThat(ids).isEmpty());
+        assertThat(index.normalizedName("1")).isNull();
+    }
+}
@@ -0,0 +1,71 @@
+package ru.itpark.sb.repository;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import ru.itpark.sb.domain.Document;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("Тесты для NameOrderIndex")
+class NameOrderIndexTest {
+
+    private final NameOrderIndex index = new NameOrderIndex();
+
+    @Test
+    @DisplayName("Должен упорядочивать кириллические и латинские имена по правилам русской локали")
+    void shouldOrderNamesByRussianCollation() {
+        // given
+        List.of("Яблоко", "ёжик", "апельсин", "Банан", "zebra", "Apple", "еда")
+                .forEach(name -> index.put(document(name)));
+
+        // when
+        List<String> names = index.ascending().stream().map(Document::getName).toList();
+
+        // then
+        assertThat(names).containsExactly("Apple", "zebra", "апельсин", "Банан", "еда", "ёжик", "Яблоко");
+    }
+
+    @Test
+    @DisplayName("Должен переупорядочивать документ после переименования и восстанавливать ключ из курсора")
+    void shouldReorderOnRenameAndRoundTripCursor() {
+        // given
+        Document first = document("Альфа");
+        Document second = document("Бета");
+        index.put(first);
+        index.put(second);
+
+        // when
+        first.setName("Гамма");
+        index.put(first);
+        NameOrderIndex.Key restored = NameOrderIndex.Key.fromCursor(index.keyOf(second).toCursor());
+
+        // then
+        assertThat(index.ascending()).containsExactly(second, first);
+        assertThat(restored.compareTo(index.keyOf(second))).isZero();
+        assertThat(index.order().compare(second, first)).isNegative();
+        assertThatThrownBy(() -> NameOrderIndex.Key.fromCursor("%%%"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Диапазон префикса должен содержать только имена с теми же первичными весами в порядке имён")
+    void shouldReturnOnlyPrimaryRangeOfPrefix() {
+        // given
+        List.of("Договор аренды", "договор", "Доверенность", "Акт", "ёлка", "елка", "Ель", "Яблоко")
+                .forEach(name -> index.put(document(name)));
+
+        // when / then
+        assertThat(index.primaryRange("ел").map(Document::getName)).containsExactly("елка", "ёлка", "Ель");
+        assertThat(index.primaryRange("дог").map(Document::getName)).containsExactly("договор", "Договор аренды");
+        assertThat(index.primaryRange("я").map(Document::getName)).containsExactly("Яблоко");
+        assertThat(index.primaryRange("ж")).isEmpty();
+        assertThat(index.primaryRange("").limit(2).map(Document::getName)).containsExactly("Акт", "Доверенность");
+    }
+
+    private Document document(String name) {
+        return new Document(name + "-id", name, new byte[0], "hash");
+    }
+}
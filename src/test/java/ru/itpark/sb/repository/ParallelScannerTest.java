@@ -0,0 +1,88 @@
+package ru.itpark.sb.repository;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("Тесты для ParallelScanner")
+class ParallelScannerTest {
+
+    private final List<Integer> values = IntStream.range(0, 10_000).boxed().toList();
+
+    @Test
+    @DisplayName("Коллекции меньше порога должны перебираться последовательно в вызывающем потоке")
+    void shouldScanSequentiallyBelowThreshold() {
+        // given
+        ParallelScanner scanner = new ParallelScanner(values.size() + 1, 4);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+
+        // when
+        long sum = scanner.scan(values, stream -> stream
+                .peek(value -> threads.add(Thread.currentThread().getName()))
+                .mapToLong(Integer::longValue)
+                .sum());
+
+        // then
+        assertThat(sum).isEqualTo(49_995_000L);
+        assertThat(threads).containsExactly(Thread.currentThread().getName());
+    }
+
+    @Test
+    @DisplayName("Большие коллекции должны перебираться в собственном пуле, а не в общем")
+    void shouldScanInDedicatedPoolAboveThreshold() {
+        // given
+        ParallelScanner scanner = new ParallelScanner(1, 4);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+
+        // when
+        List<Integer> even = scanner.scan(values, stream -> stream
+                .peek(value -> threads.add(Thread.currentThread().getName()))
+                .filter(value -> value % 2 == 0)
+                .collect(Collectors.toList()));
+
+        // then
+        assertThat(even).hasSize(5_000).isSorted();
+        assertThat(threads).isNotEmpty().allMatch(name -> name.startsWith("edo-scan-"));
+        scanner.close();
+    }
+
+    @Test
+    @DisplayName("После закрытия пул должен останавливаться, а перебор — выполняться в вызывающем потоке")
+    void shouldScanSequentiallyAfterClose() {
+        // given
+        ParallelScanner scanner = new ParallelScanner(1, 4);
+        Set<String> before = ConcurrentHashMap.newKeySet();
+        Set<String> after = ConcurrentHashMap.newKeySet();
+        scanner.scan(values, stream -> stream
+                .peek(value -> before.add(Thread.currentThread().getName()))
+                .mapToLong(Integer::longValue)
+                .sum());
+
+        // when
+        scanner.close();
+        long sum = scanner.scan(values, stream -> stream
+                .peek(value -> after.add(Thread.currentThread().getName()))
+                .mapToLong(Integer::longValue)
+                .sum());
+
+        // then
+        assertThat(before).isNotEmpty().allMatch(name -> name.startsWith("edo-scan-"));
+        assertThat(sum).isEqualTo(49_995_000L);
+        assertThat(after).containsExactly(Thread.currentThread().getName());
+    }
+
+    @Test
+    @DisplayName("Нулевой порог должен отключать параллельный перебор")
+    void shouldNeverScanInParallelWithZeroThreshold() {
+        assertThat(new ParallelScanner(0, 4).isParallel(1_000_000)).isFalse();
+        assertThat(new ParallelScanner(100, 1).isParallel(1_000_000)).isFalse();
+        assertThat(new ParallelScanner(100, 4).isParallel(100)).isTrue();
+    }
+}
@@ -0,0 +1,137 @@
+package ru.itpark.sb.repository;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("Тесты для StripedLockTable")
+class StripedLockTableTest {
+
+    @Test
+    @DisplayName("Должен округлять число полос до степени двойки и отклонять неположительное")
+    void shouldRoundStripesToPowerOfTwo() {
+        assertThat(distinctStripes(new StripedLockTable(1))).isEqualTo(1);
+        assertThat(distinctStripes(new StripedLockTable(48))).isEqualTo(64);
+        assertThat(distinctStripes(new StripedLockTable(64))).isEqualTo(64);
+        assertThatThrownBy(() -> new StripedLockTable(0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Писатель документа должен ждать текущего писателя, а документ другой полосы — нет")
+    void shouldSerializeWritersOfSameDocument() throws Exception {
+        // given
+        StripedLockTable locks = new StripedLockTable(16);
+        String other = IntStream.range(0, 100).mapToObj(i -> "other-" + i)
+                .filter(id -> locks.stripe(id) != locks.stripe("doc"))
+                .findFirst()
+                .orElseThrow();
+        ReentrantLock stripe = (ReentrantLock) locks.stripe("doc");
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean secondEntered = new AtomicBoolean();
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+            // when
+            Future<?> first = executor.submit(() -> locks.write("doc", () -> {
+                holding.countDown();
+                await(release);
+                return null;
+            }));
+            boolean firstHolding = holding.await(5, TimeUnit.SECONDS);
+            Future<Boolean> second = executor.submit(() -> locks.write("doc", () -> {
+                secondEntered.set(true);
+                return true;
+            }));
+            boolean secondQueued = awaitQueued(stripe);
+            boolean otherWritten = locks.write(other, () -> true);
+            boolean secondEnteredWhileHeld = secondEntered.get();
+            release.countDown();
+
+            // then
+            assertThat(firstHolding).isTrue();
+            assertThat(secondQueued).isTrue();
+            assertThat(otherWritten).isTrue();
+            assertThat(secondEnteredWhileHeld).isFalse();
+            assertThat(second.get(5, TimeUnit.SECONDS)).isTrue();
+            first.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    @DisplayName("Захват нескольких документов должен исключать их писателей и не взаимоблокироваться")
+    void shouldLockSeveralDocumentsWithoutDeadlock() throws Exception {
+        // given
+        StripedLockTable locks = new StripedLockTable(64);
+        List<String> forward = IntStream.range(0, 32).mapToObj(i -> "doc-" + i).toList();
+        List<String> backward = forward.reversed();
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+
+        // when
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            List<Future<?>> results = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                List<String> ids = thread % 2 == 0 ? forward : backward;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        locks.writeAll(ids, () -> {
+                            if (inside.incrementAndGet() > 1) {
+                                overlaps.incrementAndGet();
+                            }
+                            inside.decrementAndGet();
+                            return null;
+                        });
+                        locks.write(ids.get(i % ids.size()), () -> null);
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+        }
+
+        // then
+        assertThat(overlaps).hasValue(0);
+    }
+
+    private static long distinctStripes(StripedLockTable locks) {
+        return IntStream.range(0, 10_000).mapToObj(i -> locks.stripe("doc-" + i)).distinct().count();
+    }
+
+    /**
+     * Дождаться, пока на блокировке появится ожидающий поток
+     */
+    private static boolean awaitQueued(ReentrantLock lock) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!lock.hasQueuedThreads()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.onSpinWait();
+        }
+        return true;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
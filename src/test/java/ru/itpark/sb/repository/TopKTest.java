@@ -0,0 +1,47 @@
+package ru.itpark.sb.repository;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("Тесты для TopK")
+class TopKTest {
+
+    @Test
+    @DisplayName("Должен выбирать k первых элементов в заданном порядке")
+    void shouldSelectTopKInOrder() {
+        // when
+        List<Integer> top = IntStream.of(5, 1, 9, 3, 7, 2, 8)
+                .boxed()
+                .collect(TopK.collector(3, Comparator.reverseOrder()));
+
+        // then
+        assertThat(top).containsExactly(9, 8, 7);
+    }
+
+    @Test
+    @DisplayName("Параллельный поток должен давать тот же результат, что и сортировка")
+    void shouldMatchSortInParallelStream() {
+        // given
+        List<Integer> values = IntStream.range(0, 10_000).map(i -> (i * 7919) % 10_007).boxed().toList();
+
+        // when
+        List<Integer> top = values.parallelStream().collect(TopK.collector(10, Comparator.naturalOrder()));
+
+        // then
+        assertThat(top).isEqualTo(values.stream().sorted().limit(10).toList());
+    }
+
+    @Test
+    @DisplayName("Должен отклонять неположительное k")
+    void shouldRejectNonPositiveK() {
+        assertThatThrownBy(() -> TopK.collector(0, Comparator.<Integer>naturalOrder()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
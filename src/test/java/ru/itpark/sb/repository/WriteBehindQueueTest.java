@@ -0,0 +1,160 @@
+package ru.itpark.sb.repository;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("Тесты для WriteBehindQueue")
+class WriteBehindQueueTest {
+
+    @Test
+    @DisplayName("Повторные изменения одного документа должны сливаться, а flush — дожидаться их записи")
+    void shouldCoalescePendingWritesAndFlush() throws Exception {
+        // given
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<List<PendingWrite>> batches = new CopyOnWriteArrayList<>();
+        WriteBehindQueue queue = new WriteBehindQueue(batch -> {
+            started.countDown();
+            await(release);
+            batches.add(batch);
+        }, 10, OverflowPolicy.BLOCK);
+        queue.enqueue(put("blocker", "b"));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // when
+        queue.enqueue(put("1", "v1"));
+        queue.enqueue(put("1", "v2"));
+        queue.enqueue(PendingWrite.put(metadata("1", "Переименован"), null));
+
+        // then
+        assertThat(queue.pendingContent("1")).hasValueSatisfying(content -> assertThat(content).asString().isEqualTo("v2"));
+        WriteBehindQueue.Stats stats = queue.stats();
+        assertThat(stats.getQueueDepth()).isEqualTo(2);
+        assertThat(stats.getCoalescedCount()).isEqualTo(2);
+
+        // when
+        release.countDown();
+        queue.flush();
+
+        // then
+        assertThat(batches).hasSize(2);
+        PendingWrite written = batches.get(1).get(0);
+        assertThat(written.metadata().getName()).isEqualTo("Переименован");
+        assertThat(written.content()).asString().isEqualTo("v2");
+        assertThat(queue.pendingContent("1")).isEmpty();
+        assertThat(queue.stats().getQueueDepth()).isZero();
+        assertThat(queue.stats().getWrittenCount()).isEqualTo(2);
+        queue.close();
+    }
+
+    @Test
+    @DisplayName("Переполненная очередь должна отклонять запись по политике REJECT, а закрытие — дописывать очередь")
+    void shouldRejectWhenFullAndDrainOnClose() throws Exception {
+        // given
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> written = new CopyOnWriteArrayList<>();
+        WriteBehindQueue queue = new WriteBehindQueue(batch -> {
+            started.countDown();
+            await(release);
+            batch.forEach(write -> written.add(write.id()));
+        }, 2, OverflowPolicy.REJECT);
+        queue.enqueue(put("1", "a"));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        queue.enqueue(put("2", "b"));
+
+        // when / then
+        assertThatThrownBy(() -> queue.enqueue(put("3", "c")))
+                .isInstanceOf(RejectedExecutionException.class)
+                .hasMessageContaining("заполнена");
+        queue.enqueue(PendingWrite.delete("2"));
+
+        // when
+        release.countDown();
+        queue.close();
+
+        // then
+        assertThat(written).containsExactly("1", "2");
+        assertThat(queue.stats().getQueueDepth()).isZero();
+        assertThatThrownBy(() -> queue.enqueue(put("4", "d")))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("закрыта");
+    }
+
+    @Test
+    @DisplayName("При постоянных сбоях хранилища flush должен выбрасывать ошибку записи, а не ждать бесконечно")
+    void shouldFailFlushWhileStoreKeepsFailing() {
+        // given
+        AtomicBoolean failing = new AtomicBoolean(true);
+        List<String> written = new CopyOnWriteArrayList<>();
+        WriteBehindQueue queue = new WriteBehindQueue(batch -> {
+            if (failing.get()) {
+                throw new IllegalStateException("диск недоступен");
+            }
+            batch.forEach(write -> written.add(write.id()));
+        }, 10, OverflowPolicy.BLOCK);
+        queue.enqueue(put("1", "a"));
+
+        // when / then
+        assertThatThrownBy(queue::flush)
+                .isInstanceOf(IllegalStateException.class)
+                .hasRootCauseMessage("диск недоступен");
+        assertThat(queue.pendingContent("1")).isPresent();
+
+        // when
+        failing.set(false);
+        queue.close();
+
+        // then
+        assertThat(written).containsExactly("1");
+        assertThat(queue.stats().getQueueDepth()).isZero();
+    }
+
+    @Test
+    @DisplayName("Закрытие должно сообщать об изменениях, которые хранилище так и не приняло")
+    void shouldFailCloseWhenPendingWritesCannotBeWritten() {
+        // given
+        WriteBehindQueue queue = new WriteBehindQueue(batch -> {
+            throw new IllegalStateException("диск недоступен");
+        }, 10, OverflowPolicy.BLOCK);
+        queue.enqueue(put("1", "a"));
+        queue.enqueue(put("2", "b"));
+
+        // when / then
+        assertThatThrownBy(queue::close)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("не записано изменений: 2")
+                .hasRootCauseMessage("диск недоступен");
+        assertThat(queue.stats().getQueueDepth()).isZero();
+        assertThat(queue.stats().getFailedBatches()).isGreaterThanOrEqualTo(WriteBehindQueue.CLOSE_ATTEMPTS);
+    }
+
+    private static PendingWrite put(String id, String content) {
+        return PendingWrite.put(metadata(id, "Документ " + id), content.getBytes());
+    }
+
+    private static DocumentMetadata metadata(String id, String name) {
+        DocumentMetadata metadata = new DocumentMetadata();
+        metadata.setId(id);
+        metadata.setName(name);
+        return metadata;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package ru.itpark.sb.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.itpark.sb.domain.Document;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("Тесты для AsyncDocumentService")
+class AsyncDocumentServiceTest {
+
+    @Mock
+    private DocumentService documentService;
+
+    @Test
+    @DisplayName("Должен выполнять операции на виртуальных потоках и возвращать их результат")
+    void shouldRunOperationsOnVirtualThreads() throws Exception {
+        // given
+        Document document = new Document("1", "Договор", new byte[0], "hash");
+        when(documentService.getDocument("1")).thenAnswer(invocation -> {
+            assertThat(Thread.currentThread().isVirtual()).isTrue();
+            assertThat(Thread.currentThread().getName()).startsWith("edo-async-");
+            return Optional.of(document);
+        });
+        when(documentService.searchDocumentsByName("Дог")).thenReturn(List.of(document));
+
+        try (AsyncDocumentService async = new AsyncDocumentService(documentService)) {
+            // when
+            CompletableFuture<Optional<Document>> found = async.getDocument("1");
+            CompletableFuture<List<Document>> search = async.searchDocumentsByName("Дог");
+
+            // then
+            assertThat(found.get(5, TimeUnit.SECONDS)).contains(document);
+            assertThat(search.get(5, TimeUnit.SECONDS)).containsExactly(document);
+        }
+    }
+
+    @Test
+    @DisplayName("Ошибка операции должна завершать future исключением")
+    void shouldCompleteExceptionallyOnFailure() {
+        // given
+        when(documentService.updateDocument("missing", "content", "password"))
+                .thenThrow(new IllegalArgumentException("Документ с ID missing не найден"));
+
+        try (AsyncDocumentService async = new AsyncDocumentService(documentService)) {
+            // when
+            CompletableFuture<Document> result = async.updateDocument("missing", "content", "password");
+
+            // then
+            assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasRootCauseInstanceOf(IllegalArgumentException.class);
+            assertThat(async.inFlight()).isZero();
+        }
+    }
+
+    @Test
+    @DisplayName("При достижении предела одновременных операций новые операции должны отклоняться")
+    void shouldRejectOperationsBeyondInFlightLimit() throws Exception {
+        // given
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(documentService.deleteDocument("slow")).thenAnswer(invocation -> {
+            started.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        });
+        when(documentService.deleteDocument("fast")).thenReturn(true);
+        AsyncServiceOptions options = AsyncServiceOptions.builder()
+                .maxInFlight(1)
+                .acquireTimeout(Duration.ZERO)
+                .build();
+
+        try (AsyncDocumentService async = new AsyncDocumentService(documentService, options)) {
+            // when
+            CompletableFuture<Boolean> slow = async.deleteDocument("slow");
+            started.await(5, TimeUnit.SECONDS);
+            CompletableFuture<Boolean> rejected = async.deleteDocument("fast");
+            Throwable rejection = catchThrowable(() -> rejected.get(5, TimeUnit.SECONDS));
+            int inFlight = async.inFlight();
+            release.countDown();
+            slow.get(5, TimeUnit.SECONDS);
+            CompletableFuture<Boolean> accepted = async.deleteDocument("fast");
+
+            // then
+            assertThat(inFlight).isEqualTo(1);
+            assertThat(rejection).isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(RejectedExecutionException.class);
+            assertThat(accepted.get(5, TimeUnit.SECONDS)).isTrue();
+        }
+    }
+
+    @Test
+    @DisplayName("При достижении предела вызывающий поток не должен ждать, а сверх очереди ожидания — получать отказ сразу")
+    void shouldNotBlockCallerAndRejectBeyondWaitingLimit() throws Exception {
+        // given
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(documentService.deleteDocument("slow")).thenAnswer(invocation -> {
+            started.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        });
+        when(documentService.deleteDocument("queued")).thenReturn(true);
+        AsyncServiceOptions options = AsyncServiceOptions.builder()
+                .maxInFlight(1)
+                .maxWaiting(1)
+                .acquireTimeout(Duration.ofSeconds(30))
+                .build();
+
+        try (AsyncDocumentService async = new AsyncDocumentService(documentService, options)) {
+            CompletableFuture<Boolean> slow = async.deleteDocument("slow");
+            started.await(5, TimeUnit.SECONDS);
+
+            // when
+            long startedAt = System.nanoTime();
+            CompletableFuture<Boolean> queued = async.deleteDocument("queued");
+            CompletableFuture<Boolean> overflow = async.deleteDocument("overflow");
+            long submitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+            boolean queuedDoneBeforeRelease = queued.isDone();
+            boolean overflowRejectedBeforeRelease = overflow.isCompletedExceptionally();
+            release.countDown();
+
+            // then
+            assertThat(submitMillis).isLessThan(1_000);
+            assertThat(queuedDoneBeforeRelease).isFalse();
+            assertThat(overflowRejectedBeforeRelease).isTrue();
+            assertThatThrownBy(overflow::join).hasCauseInstanceOf(RejectedExecutionException.class);
+            assertThat(slow.get(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(queued.get(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(async.inFlight()).isZero();
+        }
+    }
+}
@@ -4,18 +4,36 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import ru.itpark.sb.domain.Document;
+import ru.itpark.sb.domain.DocumentDraft;
+import ru.itpark.sb.repository.DocumentPage;
 import ru.itpark.sb.repository.DocumentRepository;
+import ru.itpark.sb.repository.OverflowPolicy;
+import ru.itpark.sb.repository.RepositoryOptions;
+import ru.itpark.sb.repository.SaveResult;
 
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -31,6 +49,8 @@ class DocumentServiceTest {
 
     private DocumentService documentService;
 
+    private final DocumentKey key = new DocumentKey(new byte[16], null);
+
     @BeforeEach
     void setUp() {
         documentService = new DocumentService(repository, encryptionService);
@@ -43,10 +63,8 @@ class DocumentServiceTest {
         String name = "Test Document";
         String content = "Test Content";
         String password = "password123";
-        String passwordHash = "hashedPassword";
         byte[] encryptedContent = "encrypted".getBytes();
 
-        when(encryptionService.hashPassword(password)).thenReturn(passwordHash);
         when(encryptionService.encrypt(any(byte[].class), eq(password))).thenReturn(encryptedContent);
 
         // when
@@ -55,10 +73,10 @@ class DocumentServiceTest {
         // then
         assertThat(document).isNotNull();
         assertThat(document.getName()).isEqualTo(name);
-        assertThat(document.getPasswordHash()).isEqualTo(passwordHash);
+        assertThat(document.getPasswordHash()).isNull();
         assertThat(document.getEncryptedContent()).isEqualTo(encryptedContent);
         
-        verify(encryptionService).hashPassword(password);
+        verify(encryptionService, never()).hashPassword(any());
         verify(encryptionService).encrypt(content.getBytes(StandardCharsets.UTF_8), password);
         verify(repository).save(any(Document.class));
     }
@@ -69,15 +87,14 @@ class DocumentServiceTest {
         // given
         String id = "doc1";
         String password = "password123";
-        String passwordHash = "hashedPassword";
         String content = "Document Content";
         byte[] encryptedContent = "encrypted".getBytes();
         byte[] decryptedContent = content.getBytes(StandardCharsets.UTF_8);
 
-        Document document = new Document(id, "Test", encryptedContent, passwordHash);
+        Document document = new Document(id, "Test", encryptedContent, "hashedPassword");
         when(repository.findById(id)).thenReturn(Optional.of(document));
-        when(encryptionService.verifyPassword(password, passwordHash)).thenReturn(true);
-        when(encryptionService.decrypt(encryptedContent, password)).thenReturn(decryptedContent);
+        when(encryptionService.open(encryptedContent, password)).thenReturn(key);
+        when(encryptionService.decrypt(key, encryptedContent)).thenReturn(decryptedContent);
 
         // when
         Optional<String> result = documentService.getDocumentContent(id, password);
@@ -85,10 +102,12 @@ class DocumentServiceTest {
         // then
         assertThat(result).isPresent();
         assertThat(result.get()).isEqualTo(content);
-        
+
         verify(repository).findById(id);
-        verify(encryptionService).verifyPassword(password, passwordHash);
-        verify(encryptionService).decrypt(encryptedContent, password);
+        verify(encryptionService).open(encryptedContent, password);
+        verify(encryptionService).decrypt(key, encryptedContent);
+        verify(encryptionService, never()).verifyPassword(any(), any());
+        verify(encryptionService, never()).hashPassword(any());
     }
 
     @Test
@@ -97,23 +116,20 @@ class DocumentServiceTest {
         // given
         String id = "doc1";
         String password = "wrongPassword";
-        String passwordHash = "hashedPassword";
         byte[] encryptedContent = "encrypted".getBytes();
 
-        Document document = new Document(id, "Test", encryptedContent, passwordHash);
+        Document document = new Document(id, "Test", encryptedContent, "hashedPassword");
         when(repository.findById(id)).thenReturn(Optional.of(document));
-        when(repository.existsById(id)).thenReturn(true);
-        when(encryptionService.verifyPassword(password, passwordHash)).thenReturn(false);
+        when(encryptionService.open(encryptedContent, password)).thenReturn(key);
+        when(encryptionService.decrypt(key, encryptedContent)).thenThrow(new SecurityException("Неверный пароль"));
 
         // when & then
         assertThatThrownBy(() -> documentService.getDocumentContent(id, password))
                 .isInstanceOf(SecurityException.class)
                 .hasMessage("Неверный пароль");
-        
+
         verify(repository).findById(id);
-        verify(repository).existsById(id);
-        verify(encryptionService).verifyPassword(password, passwordHash);
-        verify(encryptionService, never()).decrypt(any(), any());
+        verify(encryptionService).open(encryptedContent, password);
     }
 
     @Test
@@ -122,7 +138,6 @@ class DocumentServiceTest {
         // given
         String id = "non-existent";
         when(repository.findById(id)).thenReturn(Optional.empty());
-        when(repository.existsById(id)).thenReturn(false);
 
         // when
         Optional<String> result = documentService.getDocumentContent(id, "password");
@@ -130,8 +145,7 @@ class DocumentServiceTest {
         // then
         assertThat(result).isEmpty();
         verify(repository).findById(id);
-        verify(repository).existsById(id);
-        verify(encryptionService, never()).verifyPassword(any(), any());
+        verify(encryptionService, never()).open(any(), any());
     }
 
     @Test
@@ -169,6 +183,22 @@ class DocumentServiceTest {
         verify(repository).findAll();
     }
 
+    @Test
+    @DisplayName("Должен возвращать страницу документов из репозитория без повторной сортировки")
+    void shouldGetDocumentsPage() {
+        // given
+        Document doc = new Document("1", "Doc1", "enc1".getBytes(), "hash1");
+        DocumentPage page = new DocumentPage(List.of(doc), "cursor-2");
+        when(repository.findAll("cursor-1", 1)).thenReturn(page);
+
+        // when
+        DocumentPage result = documentService.getDocumentsPage("cursor-1", 1);
+
+        // then
+        assertThat(result).isSameAs(page);
+        assertThat(result.hasNext()).isTrue();
+    }
+
     @Test
     @DisplayName("Должен удалять документ")
     void shouldDeleteDocument() {
@@ -209,27 +239,32 @@ class DocumentServiceTest {
         String id = "doc1";
         String newContent = "New Content";
         String password = "password123";
-        String passwordHash = "hashedPassword";
         byte[] oldEncryptedContent = "oldEncrypted".getBytes();
         byte[] newEncryptedContent = "newEncrypted".getBytes();
 
-        Document document = new Document(id, "Test", oldEncryptedContent, passwordHash);
+        Document document = new Document(id, "Test", oldEncryptedContent, "hashedPassword");
         when(repository.findById(id)).thenReturn(Optional.of(document));
-        when(encryptionService.verifyPassword(password, passwordHash)).thenReturn(true);
-        when(encryptionService.encrypt(newContent.getBytes(StandardCharsets.UTF_8), password))
+        when(encryptionService.open(oldEncryptedContent, password)).thenReturn(key);
+        when(encryptionService.encrypt(key, newContent.getBytes(StandardCharsets.UTF_8)))
                 .thenReturn(newEncryptedContent);
+        when(repository.compareAndSave(any(Document.class), eq(0L))).thenReturn(SaveResult.saved(1));
 
         // when
         Document updated = documentService.updateDocument(id, newContent, password);
 
         // then
-        assertThat(updated).isNotNull();
+        assertThat(updated).isNotNull().isNotSameAs(document);
         assertThat(updated.getEncryptedContent()).isEqualTo(newEncryptedContent);
-        
+        // Опубликованный документ не меняется на месте
+        assertThat(document.getEncryptedContent()).isEqualTo(oldEncryptedContent);
+
         verify(repository).findById(id);
-        verify(encryptionService).verifyPassword(password, passwordHash);
-        verify(encryptionService).encrypt(newContent.getBytes(StandardCharsets.UTF_8), password);
-        verify(repository).save(document);
+        verify(encryptionService).open(oldEncryptedContent, password);
+        verify(encryptionService).decrypt(key, oldEncryptedContent);
+        verify(encryptionService).encrypt(key, newContent.getBytes(StandardCharsets.UTF_8));
+        verify(encryptionService, never()).verifyPassword(any(), any());
+        verify(repository).compareAndSave(updated, 0L);
+        verify(repository, never()).save(any());
     }
 
     @Test
@@ -243,9 +278,9 @@ class DocumentServiceTest {
         assertThatThrownBy(() -> documentService.updateDocument(id, "content", "password"))
                 .isInstanceOf(IllegalArgumentException.class)
                 .hasMessageContaining("не найден");
-        
+
         verify(repository).findById(id);
-        verify(encryptionService, never()).verifyPassword(any(), any());
+        verify(encryptionService, never()).open(any(), any());
     }
 
     @Test
@@ -254,21 +289,21 @@ class DocumentServiceTest {
         // given
         String id = "doc1";
         String password = "wrongPassword";
-        String passwordHash = "hashedPassword";
         byte[] encryptedContent = "encrypted".getBytes();
 
-        Document document = new Document(id, "Test", encryptedContent, passwordHash);
+        Document document = new Document(id, "Test", encryptedContent, "hashedPassword");
         when(repository.findById(id)).thenReturn(Optional.of(document));
-        when(encryptionService.verifyPassword(password, passwordHash)).thenReturn(false);
+        when(encryptionService.open(encryptedContent, password)).thenReturn(key);
+        when(encryptionService.decrypt(key, encryptedContent)).thenThrow(new SecurityException("Неверный пароль"));
 
         // when & then
         assertThatThrownBy(() -> documentService.updateDocument(id, "newContent", password))
                 .isInstanceOf(SecurityException.class)
                 .hasMessage("Неверный пароль");
-        
+
         verify(repository).findById(id);
-        verify(encryptionService).verifyPassword(password, passwordHash);
-        verify(encryptionService, never()).encrypt(any(), any());
+        verify(encryptionService, never()).encrypt(any(DocumentKey.class), any());
+        verify(repository, never()).compareAndSave(any(), anyLong());
     }
 
     @Test
@@ -278,33 +313,88 @@ class DocumentServiceTest {
         String id = "doc1";
         String oldPassword = "oldPassword";
         String newPassword = "newPassword";
-        String oldPasswordHash = "oldHash";
-        String newPasswordHash = "newHash";
         byte[] oldEncryptedContent = "oldEncrypted".getBytes();
         byte[] decryptedContent = "decrypted".getBytes();
         byte[] newEncryptedContent = "newEncrypted".getBytes();
+        DocumentKey newKey = new DocumentKey(new byte[16], null);
 
-        Document document = new Document(id, "Test", oldEncryptedContent, oldPasswordHash);
+        Document document = new Document(id, "Test", oldEncryptedContent, "oldHash");
         when(repository.findById(id)).thenReturn(Optional.of(document));
-        when(encryptionService.verifyPassword(oldPassword, oldPasswordHash)).thenReturn(true);
-        when(encryptionService.decrypt(oldEncryptedContent, oldPassword)).thenReturn(decryptedContent);
-        when(encryptionService.encrypt(decryptedContent, newPassword)).thenReturn(newEncryptedContent);
-        when(encryptionService.hashPassword(newPassword)).thenReturn(newPasswordHash);
+        when(encryptionService.open(oldEncryptedContent, oldPassword)).thenReturn(key);
+        when(encryptionService.decrypt(key, oldEncryptedContent)).thenReturn(decryptedContent);
+        when(encryptionService.deriveKey(newPassword)).thenReturn(newKey);
+        when(encryptionService.encrypt(newKey, decryptedContent)).thenReturn(newEncryptedContent);
+        ArgumentCaptor<Document> saved = ArgumentCaptor.forClass(Document.class);
+        when(repository.compareAndSave(saved.capture(), eq(0L))).thenReturn(SaveResult.saved(1));
 
         // when
         boolean result = documentService.changePassword(id, oldPassword, newPassword);
 
         // then
         assertThat(result).isTrue();
-        assertThat(document.getPasswordHash()).isEqualTo(newPasswordHash);
-        assertThat(document.getEncryptedContent()).isEqualTo(newEncryptedContent);
-        
+        assertThat(saved.getValue().getPasswordHash()).isNull();
+        assertThat(saved.getValue().getEncryptedContent()).isEqualTo(newEncryptedContent);
+        assertThat(document.getPasswordHash()).isEqualTo("oldHash");
+        assertThat(document.getEncryptedContent()).isEqualTo(oldEncryptedContent);
+
+        verify(repository).findById(id);
+        verify(encryptionService).open(oldEncryptedContent, oldPassword);
+        verify(encryptionService).decrypt(key, oldEncryptedContent);
+        verify(encryptionService).deriveKey(newPassword);
+        verify(encryptionService).encrypt(newKey, decryptedContent);
+        verify(encryptionService, never()).hashPassword(any());
+        verify(repository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("При конфликте версий обновление должно перечитывать документ и повторяться")
+    void shouldRetryUpdateOnVersionConflict() {
+        // given
+        String id = "doc1";
+        String password = "password123";
+        byte[] firstContent = "first".getBytes();
+        byte[] concurrentContent = "concurrent".getBytes();
+        byte[] newEncryptedContent = "newEncrypted".getBytes();
+        Document stale = new Document(id, "Test", firstContent, null);
+        Document fresh = new Document(id, "Test", concurrentContent, null);
+        fresh.setVersion(1);
+        when(repository.findById(id)).thenReturn(Optional.of(stale)).thenReturn(Optional.of(fresh));
+        when(encryptionService.open(any(), eq(password))).thenReturn(key);
+        when(encryptionService.encrypt(eq(key), any(byte[].class))).thenReturn(newEncryptedContent);
+        when(repository.compareAndSave(any(Document.class), eq(0L))).thenReturn(SaveResult.conflict(1));
+        when(repository.compareAndSave(any(Document.class), eq(1L))).thenReturn(SaveResult.saved(2));
+
+        // when
+        Document updated = documentService.updateDocument(id, "New Content", password);
+
+        // then
+        assertThat(updated.getEncryptedContent()).isEqualTo(newEncryptedContent);
+        verify(repository, times(2)).findById(id);
+        verify(encryptionService).decrypt(key, firstContent);
+        verify(encryptionService).decrypt(key, concurrentContent);
+        verify(repository).compareAndSave(updated, 1L);
+    }
+
+    @Test
+    @DisplayName("Документ, удалённый во время изменения, должен считаться ненайденным")
+    void shouldTreatDocumentDeletedDuringUpdateAsMissing() {
+        // given
+        String id = "doc1";
+        byte[] encryptedContent = "encrypted".getBytes();
+        Document document = new Document(id, "Test", encryptedContent, null);
+        when(repository.findById(id)).thenReturn(Optional.of(document));
+        when(encryptionService.open(encryptedContent, "old")).thenReturn(key);
+        when(encryptionService.decrypt(key, encryptedContent)).thenReturn("plain".getBytes());
+        when(encryptionService.deriveKey("new")).thenReturn(key);
+        when(encryptionService.encrypt(eq(key), any(byte[].class))).thenReturn("newEncrypted".getBytes());
+        when(repository.compareAndSave(any(Document.class), eq(0L))).thenReturn(SaveResult.conflict(SaveResult.ABSENT));
+
+        // when
+        boolean result = documentService.changePassword(id, "old", "new");
+
+        // then
+        assertThat(result).isFalse();
         verify(repository).findById(id);
-        verify(encryptionService).verifyPassword(oldPassword, oldPasswordHash);
-        verify(encryptionService).decrypt(oldEncryptedContent, oldPassword);
-        verify(encryptionService).encrypt(decryptedContent, newPassword);
-        verify(encryptionService).hashPassword(newPassword);
-        verify(repository).save(document);
     }
 
     @Test
@@ -320,7 +410,7 @@ class DocumentServiceTest {
         // then
         assertThat(result).isFalse();
         verify(repository).findById(id);
-        verify(encryptionService, never()).verifyPassword(any(), any());
+        verify(encryptionService, never()).open(any(), any());
     }
 
     @Test
@@ -329,21 +419,21 @@ class DocumentServiceTest {
         // given
         String id = "doc1";
         String oldPassword = "wrongPassword";
-        String oldPasswordHash = "hashedPassword";
         byte[] encryptedContent = "encrypted".getBytes();
 
-        Document document = new Document(id, "Test", encryptedContent, oldPasswordHash);
+        Document document = new Document(id, "Test", encryptedContent, "hashedPassword");
         when(repository.findById(id)).thenReturn(Optional.of(document));
-        when(encryptionService.verifyPassword(oldPassword, oldPasswordHash)).thenReturn(false);
+        when(encryptionService.open(encryptedContent, oldPassword)).thenReturn(key);
+        when(encryptionService.decrypt(key, encryptedContent)).thenThrow(new SecurityException("Неверный пароль"));
 
         // when & then
         assertThatThrownBy(() -> documentService.changePassword(id, oldPassword, "newPassword"))
                 .isInstanceOf(SecurityException.class)
                 .hasMessage("Неверный старый пароль");
-        
+
         verify(repository).findById(id);
-        verify(encryptionService).verifyPassword(oldPassword, oldPasswordHash);
-        verify(encryptionService, never()).decrypt(any(), any());
+        verify(encryptionService, never()).deriveKey(any());
+        verify(repository, never()).compareAndSave(any(), anyLong());
     }
 
     @Test
@@ -359,5 +449,142 @@ class DocumentServiceTest {
         assertThat(count).isEqualTo(5);
         verify(repository).count();
     }
-}
 
+    @Test
+    @DisplayName("Должен импортировать пакет документов одним сохранением в репозитории")
+    void shouldImportBatch() {
+        // given
+        List<DocumentDraft> drafts = List.of(
+                new DocumentDraft("Doc 1", "Content 1", "password1"),
+                new DocumentDraft("Doc 2", "Content 2", "password2"));
+        when(encryptionService.encrypt(any(byte[].class), any(String.class)))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        // when
+        List<Document> imported = documentService.importBatch(drafts);
+
+        // then
+        assertThat(imported).extracting(Document::getName).containsExactly("Doc 1", "Doc 2");
+        assertThat(imported).extracting(Document::getPasswordHash).containsOnlyNulls();
+        assertThat(imported).extracting(Document::getId).doesNotHaveDuplicates();
+        verify(repository).saveAll(imported);
+        verify(repository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("Одновременные изменения одного документа должны повторяться при конфликте версий и не теряться")
+    void shouldRetryConcurrentUpdatesWithoutLosingChanges(@TempDir Path directory) throws Exception {
+        // given
+        FileStorageService storage = new FileStorageService(directory.toString());
+        try (DocumentRepository repository = new DocumentRepository(storage)) {
+            EncryptionService encryption = new EncryptionService();
+            DocumentService service = new DocumentService(repository, encryption);
+            Document document = service.saveDocument("Стресс", "начало", "a");
+            Document other = service.saveDocument("Соседний", "соседний", "x");
+            String id = document.getId();
+            AtomicInteger passwordChanges = new AtomicInteger();
+            AtomicInteger updates = new AtomicInteger();
+            List<Future<?>> results = new ArrayList<>();
+
+            // when
+            try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+                for (int thread = 0; thread < 8; thread++) {
+                    int worker = thread;
+                    results.add(executor.submit(() -> {
+                        for (int i = 0; i < 100; i++) {
+                            if (worker % 2 == 0) {
+                                if (flipPassword(service, id)) {
+                                    passwordChanges.incrementAndGet();
+                                }
+                            } else {
+                                if (updateWithAnyPassword(service, id, "версия " + worker + "-" + i)) {
+                                    updates.incrementAndGet();
+                                }
+                                service.updateDocument(other.getId(), "соседний " + i, "x");
+                            }
+                        }
+                    }));
+                }
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+
+            // then
+            // Каждое успешное изменение — ровно одна новая версия: ни одно не перезаписано другим
+            assertThat(repository.findById(id)).hasValueSatisfying(current -> assertThat(current.getVersion())
+                    .isEqualTo(document.getVersion() + passwordChanges.get() + updates.get()));
+            assertThat(repository.findById(other.getId())).hasValueSatisfying(current -> assertThat(current.getVersion())
+                    .isEqualTo(other.getVersion() + 400));
+            String expectedPassword = passwordChanges.get() % 2 == 0 ? "a" : "b";
+            assertThat(service.getDocumentContent(id, expectedPassword)).hasValueSatisfying(
+                    content -> assertThat(content).startsWith("версия"));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Изменение, отклонённое переполненной очередью отложенной записи, не должно оставаться в памяти")
+    void shouldKeepPreviousDocumentWhenWriteBehindRejectsUpdate() throws Exception {
+        // given
+        FileStorageService storage = mock(FileStorageService.class);
+        when(storage.loadMetadata()).thenReturn("[]");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(storage).saveDocumentContent(anyString(), any(byte[].class));
+        DocumentRepository writeBehind = new DocumentRepository(storage, RepositoryOptions.builder()
+                .writeBehind(true)
+                .writeBehindCapacity(1)
+                .writeBehindOverflow(OverflowPolicy.REJECT)
+                .build());
+        DocumentService service = new DocumentService(writeBehind, new EncryptionService());
+        String id = service.saveDocument("Договор", "исходный", "a").getId();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // when / then
+        assertThatThrownBy(() -> service.updateDocument(id, "изменённый", "a"))
+                .isInstanceOf(RejectedExecutionException.class);
+        assertThatThrownBy(() -> service.changePassword(id, "a", "b"))
+                .isInstanceOf(RejectedExecutionException.class);
+        assertThat(service.getDocumentContent(id, "a")).contains("исходный");
+        assertThat(writeBehind.findById(id)).hasValueSatisfying(document -> {
+            assertThat(document.getVersion()).isZero();
+            assertThat(document.getPasswordHash()).isNull();
+        });
+
+        release.countDown();
+        writeBehind.close();
+    }
+
+    private static boolean flipPassword(DocumentService service, String id) {
+        try {
+            return service.changePassword(id, "a", "b");
+        } catch (SecurityException e) {
+            try {
+                return service.changePassword(id, "b", "a");
+            } catch (SecurityException again) {
+                return false;
+            }
+        }
+    }
+
+    private static boolean updateWithAnyPassword(DocumentService service, String id, String content) {
+        try {
+            service.updateDocument(id, content, "a");
+            return true;
+        } catch (SecurityException e) {
+            try {
+                service.updateDocument(id, content, "b");
+                return true;
+            } catch (SecurityException ignored) {
+                // пароль успел смениться между попытками
+                return false;
+            }
+        }
+    }
+}
@@ -4,6 +4,17 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
@@ -199,5 +210,203 @@ class EncryptionServiceTest {
         assertThat(decrypted).isEqualTo(dataBytes);
         assertThat(new String(decrypted)).isEqualTo(data);
     }
-}
 
+    @Test
+    @DisplayName("Должен шифровать и расшифровывать большой поток блоками")
+    void shouldEncryptAndDecryptLargeStream() {
+        // given
+        byte[] data = new byte[3 * 64 * 1024 + 123];
+        new Random(42).nextBytes(data);
+        String password = "streamPassword";
+
+        // when
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        encryptionService.encrypt(new ByteArrayInputStream(data), encrypted, password);
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        encryptionService.decrypt(new ByteArrayInputStream(encrypted.toByteArray()), decrypted, password);
+
+        // then
+        assertThat(decrypted.toByteArray()).isEqualTo(data);
+    }
+
+    @Test
+    @DisplayName("Должен шифровать пустой поток и поток кратный размеру блока")
+    void shouldEncryptEmptyAndChunkAlignedStreams() {
+        for (int length : new int[]{0, 64 * 1024, 2 * 64 * 1024}) {
+            // given
+            byte[] data = new byte[length];
+            new Random(length).nextBytes(data);
+
+            // when
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            encryptionService.encrypt(new ByteArrayInputStream(data), encrypted, "password");
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            encryptionService.decrypt(new ByteArrayInputStream(encrypted.toByteArray()), decrypted, "password");
+
+            // then
+            assertThat(decrypted.toByteArray()).isEqualTo(data);
+        }
+    }
+
+    @Test
+    @DisplayName("Должен отклонять поток с неверным паролем")
+    void shouldRejectStreamWithWrongPassword() {
+        // given
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        encryptionService.encrypt(new ByteArrayInputStream("secret".getBytes()), encrypted, "correct");
+
+        // when & then
+        assertThatThrownBy(() -> encryptionService.decrypt(
+                new ByteArrayInputStream(encrypted.toByteArray()), new ByteArrayOutputStream(), "wrong"))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageContaining("Проверьте пароль");
+    }
+
+    @Test
+    @DisplayName("Должен обнаруживать обрезанный поток")
+    void shouldDetectTruncatedStream() {
+        // given
+        byte[] data = new byte[2 * 64 * 1024 + 10];
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        encryptionService.encrypt(new ByteArrayInputStream(data), encrypted, "password");
+        // Оставляем заголовок и первый блок целиком
+        int headerLength = 4 + 16 + 7 + 4;
+        int firstChunkLength = 1 + 4 + 64 * 1024 + 16;
+        byte[] truncated = Arrays.copyOf(encrypted.toByteArray(), headerLength + firstChunkLength);
+
+        // when & then
+        assertThatThrownBy(() -> encryptionService.decrypt(
+                new ByteArrayInputStream(truncated), new ByteArrayOutputStream(), "password"))
+                .isInstanceOf(RuntimeException.class);
+    }
+
+    @Test
+    @DisplayName("Должен обнаруживать подмену флага последнего блока")
+    void shouldDetectForgedFinalFlag() {
+        // given
+        byte[] data = new byte[2 * 64 * 1024 + 10];
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        encryptionService.encrypt(new ByteArrayInputStream(data), encrypted, "password");
+        byte[] forged = encrypted.toByteArray();
+        forged[4 + 16 + 7 + 4] = 1;
+
+        // when & then
+        assertThatThrownBy(() -> encryptionService.decrypt(
+                new ByteArrayInputStream(forged), new ByteArrayOutputStream(), "password"))
+                .isInstanceOf(RuntimeException.class);
+    }
+
+    @Test
+    @DisplayName("Должен шифровать и расшифровывать часть массива по смещению")
+    void shouldEncryptAndDecryptArraySlice() {
+        // given
+        byte[] source = "prefix|payload|suffix".getBytes();
+        int offset = 7;
+        int length = 7;
+        byte[] destination = new byte[5 + encryptionService.encryptedLength(length) + 5];
+
+        // when
+        int written = encryptionService.encrypt(source, offset, length, destination, 5, "password");
+        byte[] decrypted = encryptionService.decrypt(destination, 5, written, "password");
+
+        // then
+        assertThat(written).isEqualTo(encryptionService.encryptedLength(length));
+        assertThat(decrypted).isEqualTo("payload".getBytes());
+    }
+
+    @Test
+    @DisplayName("Должен шифровать и расшифровывать ByteBuffer, совместимо с массивами")
+    void shouldEncryptAndDecryptByteBuffers() {
+        // given
+        byte[] data = "Данные в буфере".getBytes();
+        ByteBuffer encrypted = ByteBuffer.allocateDirect(encryptionService.encryptedLength(data.length));
+
+        // when
+        int written = encryptionService.encrypt(ByteBuffer.wrap(data), encrypted, "password");
+        encrypted.flip();
+        byte[] encryptedBytes = new byte[written];
+        encrypted.duplicate().get(encryptedBytes);
+        ByteBuffer decrypted = ByteBuffer.allocate(data.length);
+        encryptionService.decrypt(encrypted, decrypted, "password");
+
+        // then
+        assertThat(decrypted.array()).isEqualTo(data);
+        assertThat(encryptionService.decrypt(encryptedBytes, "password")).isEqualTo(data);
+    }
+
+    @Test
+    @DisplayName("Должен отклонять слишком короткие зашифрованные данные")
+    void shouldRejectTooShortEncryptedData() {
+        assertThatThrownBy(() -> encryptionService.decrypt(new byte[10], "password"))
+                .isInstanceOf(RuntimeException.class)
+                .hasRootCauseInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Должен корректно работать при одновременных вызовах из виртуальных потоков")
+    void shouldWorkConcurrentlyOnVirtualThreads() throws Exception {
+        // given
+        List<Future<Boolean>> results = new ArrayList<>();
+
+        // when
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 500; i++) {
+                String data = "document-" + i;
+                String password = "password-" + (i % 7);
+                results.add(executor.submit(() -> {
+                    byte[] encrypted = encryptionService.encrypt(data.getBytes(), password);
+                    return data.equals(new String(encryptionService.decrypt(encrypted, password)))
+                            && encryptionService.verifyPassword(password, encryptionService.hashPassword(password));
+                }));
+            }
+        }
+
+        // then
+        for (Future<Boolean> result : results) {
+            assertThat(result.get()).isTrue();
+        }
+    }
+
+    @Test
+    @DisplayName("Должен открывать данные одним выводом ключа и переиспользовать ключ для шифрования")
+    void shouldOpenAndReuseDocumentKey() {
+        // given
+        byte[] encrypted = encryptionService.encrypt("original".getBytes(), "password");
+
+        // when
+        DocumentKey key = encryptionService.open(encrypted, "password");
+        byte[] decrypted = encryptionService.decrypt(key, encrypted);
+        byte[] reencrypted = encryptionService.encrypt(key, "updated".getBytes());
+
+        // then
+        assertThat(decrypted).isEqualTo("original".getBytes());
+        assertThat(encryptionService.decrypt(reencrypted, "password")).isEqualTo("updated".getBytes());
+        assertThat(encryptionService.decrypt(key, reencrypted)).isEqualTo("updated".getBytes());
+    }
+
+    @Test
+    @DisplayName("Должен проверять пароль тегом GCM при открытии ключом")
+    void shouldRejectWrongPasswordByGcmTag() {
+        // given
+        byte[] encrypted = encryptionService.encrypt("secret".getBytes(), "correct");
+        DocumentKey key = encryptionService.open(encrypted, "wrong");
+
+        // when & then
+        assertThatThrownBy(() -> encryptionService.decrypt(key, encrypted))
+                .isInstanceOf(SecurityException.class)
+                .hasMessage("Неверный пароль");
+    }
+
+    @Test
+    @DisplayName("Должен шифровать ключом с новой солью, совместимо с шифрованием по паролю")
+    void shouldEncryptWithDerivedKey() {
+        // given
+        DocumentKey key = encryptionService.deriveKey("newPassword");
+
+        // when
+        byte[] encrypted = encryptionService.encrypt(key, "data".getBytes());
+
+        // then
+        assertThat(encryptionService.decrypt(encrypted, "newPassword")).isEqualTo("data".getBytes());
+    }
+}
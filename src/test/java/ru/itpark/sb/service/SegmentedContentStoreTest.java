@@ -0,0 +1,243 @@
+package ru.itpark.sb.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("Тесты для SegmentedContentStore")
+class SegmentedContentStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Должен сохранять, перезаписывать и удалять содержимое")
+    void shouldSaveOverwriteAndDeleteContent() {
+        try (SegmentedContentStore store = openStore()) {
+            // when
+            store.save("1", "first".getBytes());
+            store.save("2", "second".getBytes());
+            store.save("1", "updated".getBytes());
+
+            // then
+            assertThat(store.load("1")).contains("updated".getBytes());
+            assertThat(store.load("2")).contains("second".getBytes());
+            assertThat(store.exists("1")).isTrue();
+
+            // when
+            boolean deleted = store.delete("2");
+
+            // then
+            assertThat(deleted).isTrue();
+            assertThat(store.load("2")).isEmpty();
+            assertThat(store.exists("2")).isFalse();
+            assertThat(store.delete("2")).isFalse();
+        }
+    }
+
+    @Test
+    @DisplayName("Должен читать записи из заполненных окон, на границе окон и из недописанного хвоста")
+    void shouldReadAcrossMappedWindowsWhileSegmentGrows() {
+        try (SegmentedContentStore store = SegmentedContentStore.open(directory, 64L * 1024 * 1024, 0.5, Duration.ZERO)) {
+            // when
+            for (int i = 0; i < 12; i++) {
+                byte[] content = new byte[1_000_003];
+                Arrays.fill(content, (byte) i);
+                store.save("doc-" + i, content);
+                assertThat(store.load("doc-" + i)).hasValueSatisfying(loaded -> assertThat(loaded).isEqualTo(content));
+            }
+
+            // then
+            assertThat(store.segmentCount()).isEqualTo(1);
+            for (int i = 0; i < 12; i++) {
+                byte[] expected = new byte[1_000_003];
+                Arrays.fill(expected, (byte) i);
+                assertThat(store.load("doc-" + i)).hasValueSatisfying(loaded -> assertThat(loaded).isEqualTo(expected));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Должен восстанавливать индекс при повторном открытии")
+    void shouldRestoreIndexOnReopen() {
+        // given
+        try (SegmentedContentStore store = openStore()) {
+            for (int i = 0; i < 50; i++) {
+                store.save("doc-" + i, ("content-" + i).getBytes());
+            }
+            store.save("doc-1", "rewritten".getBytes());
+            store.delete("doc-2");
+        }
+
+        // when
+        try (SegmentedContentStore reopened = openStore()) {
+            // then
+            assertThat(reopened.segmentCount()).isGreaterThan(1);
+            assertThat(reopened.load("doc-0")).contains("content-0".getBytes());
+            assertThat(reopened.load("doc-1")).contains("rewritten".getBytes());
+            assertThat(reopened.load("doc-2")).isEmpty();
+            assertThat(reopened.load("doc-49")).contains("content-49".getBytes());
+        }
+    }
+
+    @Test
+    @DisplayName("Уплотнение должно освобождать место и сохранять живые данные")
+    void shouldReclaimSpaceOnCompaction() {
+        // given
+        try (SegmentedContentStore store = openStore()) {
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 20; i++) {
+                    store.save("doc-" + i, ("round-" + round + "-" + i).getBytes());
+                }
+            }
+            for (int i = 10; i < 20; i++) {
+                store.delete("doc-" + i);
+            }
+            long usageBefore = store.diskUsage();
+
+            // when
+            int compacted = store.compact();
+
+            // then
+            assertThat(compacted).isGreaterThan(0);
+            assertThat(store.diskUsage()).isLessThan(usageBefore);
+            for (int i = 0; i < 10; i++) {
+                assertThat(store.load("doc-" + i)).contains(("round-4-" + i).getBytes());
+            }
+            assertThat(store.load("doc-15")).isEmpty();
+        }
+
+        // Удалённые документы не должны «воскресать» после уплотнения и переоткрытия
+        try (SegmentedContentStore reopened = openStore()) {
+            assertThat(reopened.load("doc-15")).isEmpty();
+            assertThat(reopened.load("doc-5")).contains("round-4-5".getBytes());
+        }
+    }
+
+    @Test
+    @DisplayName("Уплотнение не должно терять записи и удаления, сделанные во время копирования")
+    void shouldKeepConcurrentWritesDuringCompaction() throws Exception {
+        // given
+        // Значение null — документ удалён; карту меняет только поток записи
+        Map<String, String> expected = new HashMap<>();
+        List<String> staleReads = new ArrayList<>();
+        try (SegmentedContentStore store = openStore()) {
+            AtomicBoolean writing = new AtomicBoolean(true);
+            // «Холодные» документы не перезаписываются, поэтому уплотнению есть что переносить,
+            // а «горячие» перезаписываются и удаляются, пока их записи копируются
+            Thread writer = new Thread(() -> {
+                for (int step = 0; step < 10_000; step++) {
+                    String hot = "hot-" + step * 7 % 20;
+                    save(store, expected, hot, "step-" + step);
+                    if (step % 4 == 0) {
+                        save(store, expected, "cold-" + step, "cold-" + step);
+                    }
+                    if (step % 13 == 0) {
+                        String deleted = "hot-" + step * 3 % 20;
+                        store.delete(deleted);
+                        expected.put(deleted, null);
+                    }
+                    String probe = "hot-" + (step * 7 + 10) % 20;
+                    if (!Arrays.equals(store.load(probe).orElse(null), bytes(expected.get(probe)))) {
+                        staleReads.add(probe + " на шаге " + step);
+                    }
+                }
+                writing.set(false);
+            });
+
+            // when
+            writer.start();
+            int compacted = 0;
+            while (writing.get()) {
+                compacted += store.compact();
+            }
+            writer.join();
+
+            // then
+            assertThat(compacted).isGreaterThan(0);
+            assertThat(staleReads).isEmpty();
+            assertContent(store, expected);
+        }
+
+        try (SegmentedContentStore reopened = openStore()) {
+            assertContent(reopened, expected);
+        }
+    }
+
+    @Test
+    @DisplayName("Должен удалять копию сегмента, оставшуюся от прерванного уплотнения")
+    void shouldRemoveUnfinishedCompactionCopyOnOpen() throws IOException {
+        // given
+        try (SegmentedContentStore store = openStore()) {
+            store.save("1", "complete".getBytes());
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        Path copy = segment.resolveSibling(segment.getFileName() + ".compact");
+        Files.write(copy, new byte[]{0, 0, 0, 1, 'x'});
+
+        // when
+        try (SegmentedContentStore reopened = openStore()) {
+            // then
+            assertThat(reopened.load("1")).contains("complete".getBytes());
+            assertThat(copy).doesNotExist();
+            assertThat(reopened.segmentCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    @DisplayName("Должен отбрасывать недописанную запись в конце сегмента")
+    void shouldDropTornTailRecord() throws IOException {
+        // given
+        try (SegmentedContentStore store = openStore()) {
+            store.save("1", "complete".getBytes());
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        Files.write(segment, new byte[]{0, 0, 0, 5, 'b', 'r'}, StandardOpenOption.APPEND);
+
+        // when
+        try (SegmentedContentStore reopened = openStore()) {
+            // then
+            assertThat(reopened.load("1")).contains("complete".getBytes());
+            reopened.save("2", "after".getBytes());
+            assertThat(reopened.load("2")).contains("after".getBytes());
+        }
+    }
+
+    private static void save(SegmentedContentStore store, Map<String, String> expected, String id, String value) {
+        store.save(id, value.getBytes());
+        expected.put(id, value);
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes();
+    }
+
+    private static void assertContent(SegmentedContentStore store, Map<String, String> expected) {
+        expected.forEach((id, value) -> assertThat(store.load(id).orElse(null)).as(id).isEqualTo(bytes(value)));
+    }
+
+    private SegmentedContentStore openStore() {
+        return SegmentedContentStore.open(directory, 256, 0.5, Duration.ZERO);
+    }
+}